@@ -1,11 +1,24 @@
 package integration.messaging;
 
+import java.io.InputStream;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.TypeConversionException;
+import org.apache.camel.component.jms.ConsumerType;
+import org.apache.camel.component.jms.JmsComponent;
+import org.apache.camel.component.jms.JmsConfiguration;
+import org.apache.camel.spring.boot.CamelContextConfiguration;
 import org.apache.camel.spring.spi.SpringTransactionPolicy;
+import org.apache.camel.support.TypeConverterSupport;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.transaction.PlatformTransactionManager;
 
+import integration.messaging.content.MessageContent;
+
 /**
  * Apache Camel config.
  * 
@@ -24,4 +37,80 @@ public class CamelConfig {
         policy.setPropagationBehaviorName("PROPAGATION_REQUIRES_NEW");
         return policy;
     }
+
+    /**
+     * Lets Camel convert MessageContent bodies to text, bytes and streams so
+     * routes, endpoints and beans which expect one of those keep working.
+     * 
+     * @return
+     */
+    @Bean
+    public CamelContextConfiguration messageContentTypeConverters() {
+        return new CamelContextConfiguration() {
+
+            @Override
+            public void beforeApplicationStart(CamelContext camelContext) {
+                camelContext.getTypeConverterRegistry().addTypeConverter(String.class, MessageContent.class, new TypeConverterSupport() {
+
+                    @Override
+                    public <T> T convertTo(Class<T> type, Exchange exchange, Object value) throws TypeConversionException {
+                        return type.cast(((MessageContent) value).asString());
+                    }
+                });
+
+                camelContext.getTypeConverterRegistry().addTypeConverter(byte[].class, MessageContent.class, new TypeConverterSupport() {
+
+                    @Override
+                    public <T> T convertTo(Class<T> type, Exchange exchange, Object value) throws TypeConversionException {
+                        return type.cast(((MessageContent) value).asBytes());
+                    }
+                });
+
+                camelContext.getTypeConverterRegistry().addTypeConverter(InputStream.class, MessageContent.class, new TypeConverterSupport() {
+
+                    @Override
+                    public <T> T convertTo(Class<T> type, Exchange exchange, Object value) throws TypeConversionException {
+                        return type.cast(((MessageContent) value).openStream());
+                    }
+                });
+            }
+
+            @Override
+            public void afterApplicationStart(CamelContext camelContext) {
+            }
+        };
+    }
+
+    /**
+     * In VIRTUAL execution mode the JMS listener containers run each consumer on a
+     * virtual thread. The direct routes called by the consumers, including the
+     * processing step direct:process routes, run on the same thread. Each consumer
+     * takes a permit from the concurrency limiter before it receives a message.
+     * 
+     * @param concurrencyLimiter
+     * @return
+     */
+    @Bean
+    public CamelContextConfiguration jmsExecutionMode(ConcurrencyLimiter concurrencyLimiter) {
+        return new CamelContextConfiguration() {
+
+            @Override
+            public void beforeApplicationStart(CamelContext camelContext) {
+                if (!concurrencyLimiter.isVirtual()) {
+                    return;
+                }
+
+                JmsComponent jmsComponent = camelContext.getComponent("jms", JmsComponent.class);
+                jmsComponent.setTaskExecutor(new SimpleAsyncTaskExecutor(VirtualThreads.newVirtualThreadFactory("jms-consumer-")));
+
+                JmsConfiguration configuration = jmsComponent.getConfiguration();
+                configuration.setConsumerType(ConsumerType.Custom);
+                configuration.setMessageListenerContainerFactory(endpoint -> new LimitedJmsMessageListenerContainer(endpoint, concurrencyLimiter));
+            }
+
+            @Override
+            public void afterApplicationStart(CamelContext camelContext) {
+            }
+        };
+    }
 }
\ No newline at end of file
@@ -0,0 +1,169 @@
+package integration.messaging;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Limits the number of messages being processed at the same time on this node
+ * when running on virtual threads.
+ *
+ * With platform threads the number of JMS consumer threads limits how much
+ * blocking database and JMS work is in progress. Virtual threads are cheap so
+ * each JMS consumer route defaults to more consumers, and the thread count no
+ * longer provides a useful limit. Instead each JMS consumer takes a permit
+ * before it receives a message and returns it once the message has been
+ * processed, see LimitedJmsMessageListenerContainer, so no more than the limit
+ * of messages are ever being processed on the node. The limit can be sized
+ * against the database connection pool rather than against memory used by
+ * thread stacks.
+ *
+ * The consumers themselves are also reserved against the limit so a node does
+ * not run far more consumers than can hold a permit. Consumers are reserved
+ * when a route is registered with the autoscaler and when it scales up, and
+ * released when it scales down. A reservation is never granted past the limit.
+ *
+ * In PLATFORM mode every reservation is granted and no permits are taken.
+ *
+ * The number of reserved consumers is published as the
+ * integration.execution.consumers gauge and the number of permits taken as the
+ * integration.execution.active gauge.
+ *
+ * @author Brendan Douglas
+ */
+@Component
+public class ConcurrencyLimiter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    private final ExecutionMode executionMode;
+
+    private final int maxConcurrency;
+
+    private final int virtualConcurrentConsumers;
+
+    private final AtomicInteger reserved = new AtomicInteger();
+
+    private final Semaphore permits;
+
+    public ConcurrencyLimiter(@Value("${integration.messaging.executionMode:PLATFORM}") ExecutionMode executionMode,
+            @Value("${integration.messaging.maxConcurrency:200}") int maxConcurrency,
+            @Value("${integration.messaging.virtualConcurrentConsumers:20}") int virtualConcurrentConsumers, ObjectProvider<MeterRegistry> meterRegistry) {
+        if (executionMode == ExecutionMode.VIRTUAL && !VirtualThreads.isSupported()) {
+            LOGGER.warn("Virtual threads are not supported by this JVM. Platform threads will be used");
+            executionMode = ExecutionMode.PLATFORM;
+        }
+
+        this.executionMode = executionMode;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.virtualConcurrentConsumers = Math.max(1, virtualConcurrentConsumers);
+        this.permits = new Semaphore(this.maxConcurrency);
+
+        MeterRegistry registry = meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+
+        Gauge.builder("integration.execution.consumers", reserved, AtomicInteger::get)
+            .description("JMS consumers reserved against the node concurrency limit")
+            .register(registry);
+
+        Gauge.builder("integration.execution.active", permits, semaphore -> this.maxConcurrency - semaphore.availablePermits())
+            .description("Messages being processed against the node concurrency limit")
+            .register(registry);
+    }
+
+    /**
+     * The execution mode in use. This is PLATFORM if VIRTUAL was configured but is
+     * not supported by the JVM.
+     *
+     * @return
+     */
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    public boolean isVirtual() {
+        return executionMode == ExecutionMode.VIRTUAL;
+    }
+
+    /**
+     * The number of consumers a JMS consumer route starts with on virtual threads
+     * unless the component sets its own.
+     *
+     * @return
+     */
+    public int getVirtualConcurrentConsumers() {
+        return virtualConcurrentConsumers;
+    }
+
+    /**
+     * Reserves up to the requested number of consumers and returns the number
+     * reserved, which is less than requested if the limit would be exceeded.
+     *
+     * @param requested
+     * @return
+     */
+    public int reserve(int requested) {
+        if (requested <= 0) {
+            return 0;
+        }
+
+        if (!isVirtual()) {
+            reserved.addAndGet(requested);
+            return requested;
+        }
+
+        while (true) {
+            int current = reserved.get();
+            int granted = Math.min(requested, Math.max(0, maxConcurrency - current));
+
+            if (granted == 0 || reserved.compareAndSet(current, current + granted)) {
+                return granted;
+            }
+        }
+    }
+
+    /**
+     * Takes a permit to process a message, waiting up to the timeout for one to be
+     * returned. Returns false if no permit was taken. A permit is always taken in
+     * PLATFORM mode.
+     *
+     * @param timeout the maximum time to wait in milliseconds.
+     * @return
+     * @throws InterruptedException
+     */
+    public boolean acquire(long timeout) throws InterruptedException {
+        if (!isVirtual()) {
+            return true;
+        }
+
+        return permits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a permit taken by acquire.
+     */
+    public void releasePermit() {
+        if (isVirtual()) {
+            permits.release();
+        }
+    }
+
+    /**
+     * Releases consumers which are no longer running.
+     *
+     * @param count
+     */
+    public void release(int count) {
+        if (count > 0) {
+            reserved.addAndGet(-count);
+        }
+    }
+}
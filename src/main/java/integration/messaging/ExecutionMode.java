@@ -0,0 +1,20 @@
+package integration.messaging;
+
+/**
+ * The threads the JMS consumers, processing routes and outbox dispatch run on.
+ * 
+ * @author Brendan Douglas
+ */
+public enum ExecutionMode {
+
+    /**
+     * Platform threads. Concurrency is limited by the number of threads.
+     */
+    PLATFORM,
+
+    /**
+     * Virtual threads. Requires Java 21 or later, otherwise PLATFORM is used.
+     * Concurrency is limited by semaphores rather than by the number of threads.
+     */
+    VIRTUAL
+}
@@ -0,0 +1,47 @@
+package integration.messaging;
+
+import org.apache.camel.component.jms.DefaultJmsMessageListenerContainer;
+import org.apache.camel.component.jms.JmsEndpoint;
+
+import jakarta.jms.JMSException;
+import jakarta.jms.MessageConsumer;
+import jakarta.jms.Session;
+
+/**
+ * A JMS listener container which takes a permit from the concurrency limiter
+ * before each receive and returns it once the message has been processed. A
+ * consumer waiting for a permit has not received a message so nothing is held
+ * back from the other nodes.
+ *
+ * A consumer which can't get a permit within the receive timeout returns to the
+ * container as if no message was received, so it still stops promptly when the
+ * container is stopped or scaled down.
+ *
+ * @author Brendan Douglas
+ */
+public class LimitedJmsMessageListenerContainer extends DefaultJmsMessageListenerContainer {
+    private final ConcurrencyLimiter concurrencyLimiter;
+
+    public LimitedJmsMessageListenerContainer(JmsEndpoint endpoint, ConcurrencyLimiter concurrencyLimiter) {
+        super(endpoint);
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    @Override
+    protected boolean receiveAndExecute(Object invoker, Session session, MessageConsumer consumer) throws JMSException {
+        try {
+            if (!concurrencyLimiter.acquire(getReceiveTimeout())) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        try {
+            return super.receiveAndExecute(invoker, session, consumer);
+        } finally {
+            concurrencyLimiter.releasePermit();
+        }
+    }
+}
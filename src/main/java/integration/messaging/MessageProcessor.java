@@ -1,17 +1,24 @@
 package integration.messaging;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.camel.Exchange;
 import org.apache.ignite.Ignite;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import integration.core.domain.configuration.DirectionEnum;
 import integration.core.domain.messaging.MessageFlowTypeEvent;
+import integration.core.dto.MessageFlowEventDto;
 import integration.core.dto.MessageFlowStepDto;
 import integration.core.service.ConfigurationService;
 import integration.messaging.component.processingstep.filter.MessageAcceptancePolicy;
+import integration.messaging.content.MessageContent;
+import integration.messaging.content.MessageContentCache;
+import integration.messaging.outbox.OutboxClaimMode;
 import integration.messaging.service.MessagingFlowService;
 
 /**
@@ -22,6 +29,16 @@ public class MessageProcessor {
     public static final String FROM_MESSAGE_FLOW_STEP_ID = "fromMessageFlowStepId";
     public static final String MESSAGE_FLOW_STEP_ID = "messageFlowStepId";
 
+    // Set on a JMS message when the body is the message content rather than the message flow step id.
+    public static final String INLINE_CONTENT = "inlineContent";
+
+    // Exchange properties used by the transactional outbox dispatch routes.
+    public static final String COMPONENT_ROUTE_ID = "componentRouteId";
+    public static final String OUTBOX_EVENT_TYPE = "outboxEventType";
+    public static final String OUTBOX_BATCH_SIZE = "outboxBatchSize";
+    public static final String OUTBOX_CLAIM_MODE = "outboxClaimMode";
+    public static final String OUTBOX_EVENT_COUNT = "outboxEventCount";
+
     @Autowired
     protected Ignite ignite;
 
@@ -31,6 +48,13 @@ public class MessageProcessor {
     @Autowired
     protected ConfigurationService configurationService;
 
+    @Autowired
+    protected MessageContentCache contentCache;
+
+    // Content up to this size is sent inline in JMS messages. 0 disables inline content.
+    @Value("${integration.messaging.inlineContentMaxSize:0}")
+    protected int inlineContentMaxSize;
+
     /**
      * Stores a message flow.
      * 
@@ -50,7 +74,24 @@ public class MessageProcessor {
         Map<String, Object> headers = exchange.getIn().getHeaders();
 
         String contentType = (String) exchange.getMessage().getHeader("contentType");
-        String messageContent = exchange.getMessage().getMandatoryBody(String.class);
+
+        // Content is stored as text so byte content is decoded here, once.  The body is replaced with text only content so the bytes are
+        // not held alongside the text for the rest of the exchange.  They are encoded again if a later step asks for them.
+        Object body = exchange.getMessage().getBody();
+        String messageContent = null;
+
+        // Blob store content which has not been decoded is referenced rather than read and written again.
+        if (body instanceof MessageContent content && content.getBlobAddress() != null && !content.isText()) {
+            return messagingFlowService.recordBlobMessageFlow(componentRouteId, content.getBlobAddress(), headers, fromMessageFlowId, contentType,
+                    direction);
+        }
+
+        if (body instanceof MessageContent content) {
+            messageContent = content.asString();
+            exchange.getMessage().setBody(MessageContent.of(messageContent));
+        } else {
+            messageContent = exchange.getMessage().getMandatoryBody(String.class);
+        }
 
         return messagingFlowService.recordMessageFlow(componentRouteId, messageContent, headers, fromMessageFlowId, contentType,
                 direction);
@@ -65,11 +106,11 @@ public class MessageProcessor {
      * @return
      * @throws Exception
      */
-    public String storeInboundMessageFlowStep(Exchange exchange, long componentRouteId) throws Exception {
+    public Object storeInboundMessageFlowStep(Exchange exchange, long componentRouteId) throws Exception {
         MessageFlowStepDto messageFlowDto = storeMessageFlow(exchange, componentRouteId, DirectionEnum.INBOUND);
         exchange.getMessage().setHeader(MESSAGE_FLOW_STEP_ID, messageFlowDto.getId());
 
-        return messageFlowDto.getMessageContent();
+        return getStoredBody(exchange, messageFlowDto);
     }
 
     /**
@@ -81,11 +122,29 @@ public class MessageProcessor {
      * @return
      * @throws Exception
      */
-    public String storeOutboundMessageFlowStep(Exchange exchange, long componentRouteId) throws Exception {
+    public Object storeOutboundMessageFlowStep(Exchange exchange, long componentRouteId) throws Exception {
 
         MessageFlowStepDto messageFlowDto = storeMessageFlow(exchange, componentRouteId, DirectionEnum.OUTBOUND);
         exchange.getMessage().setHeader(MESSAGE_FLOW_STEP_ID, messageFlowDto.getId());
 
+        return getStoredBody(exchange, messageFlowDto);
+    }
+
+    /**
+     * The body after a message flow step has been stored. Content bodies are kept
+     * as they are the same content and are not then copied again as text.
+     * 
+     * @param exchange
+     * @param messageFlowDto
+     * @return
+     */
+    private Object getStoredBody(Exchange exchange, MessageFlowStepDto messageFlowDto) {
+        Object body = exchange.getMessage().getBody();
+
+        if (body instanceof MessageContent) {
+            return body;
+        }
+
         return messageFlowDto.getMessageContent();
     }
 
@@ -134,17 +193,29 @@ public class MessageProcessor {
      */
     public String getMessageContent(Exchange exchange) throws Exception {
         long messageFlowId = (long) exchange.getMessage().getHeader(MESSAGE_FLOW_STEP_ID);
-        return messagingFlowService.retrieveMessageFlow(messageFlowId).getMessageContent();
+        return retrieveMessageContent(messageFlowId);
     }
 
     /**
-     * 
+     * Replaces the message flow step id body with the content of the message flow
+     * step. Content in the blob store is returned as content which streams from
+     * the blob store rather than as text.
      * 
      * @param exchange
      * @return
      * @throws Exception
      */
-    public String replaceMessageBodyIdWithMessageContent(Exchange exchange) throws Exception {
+    public Object replaceMessageBodyIdWithMessageContent(Exchange exchange) throws Exception {
+        // Small messages carry the content so there is nothing to read.  The message flow id will be a header.
+        if (exchange.getMessage().getHeader(INLINE_CONTENT, false, Boolean.class)) {
+            exchange.getMessage().removeHeader(INLINE_CONTENT);
+
+            long messageFlowId = exchange.getMessage().getHeader(MESSAGE_FLOW_STEP_ID, Long.class);
+            exchange.getMessage().setHeader(FROM_MESSAGE_FLOW_STEP_ID, messageFlowId);
+
+            return exchange.getMessage().getMandatoryBody(String.class);
+        }
+
         // The message flow id will be the body.
         long messageFlowId = (long) exchange.getMessage().getBody();
 
@@ -152,7 +223,81 @@ public class MessageProcessor {
         exchange.getMessage().setHeader(FROM_MESSAGE_FLOW_STEP_ID, messageFlowId);
 
         // Now replace the body with the message content.
-        return messagingFlowService.retrieveMessageFlow(messageFlowId).getMessageContent();
+        return openMessageContent(messageFlowId);
+    }
+
+    /**
+     * Returns the body to send over JMS for a message flow step. If inline content
+     * is enabled and the content is no larger than the limit the content is sent
+     * with the message flow step id as a header, otherwise only the message flow
+     * step id is sent and the consumer reads the content from the database.
+     * 
+     * @param exchange
+     * @return
+     */
+    public Object inlineMessageContent(Exchange exchange) {
+        long messageFlowId = exchange.getMessage().getBody(Long.class);
+
+        if (inlineContentMaxSize <= 0) {
+            return messageFlowId;
+        }
+
+        Object content = openMessageContent(messageFlowId);
+
+        // Blob store content is always too large to send inline.
+        if (!(content instanceof String text) || text.length() > inlineContentMaxSize) {
+            return messageFlowId;
+        }
+
+        exchange.getMessage().setHeader(INLINE_CONTENT, true);
+
+        return text;
+    }
+
+    /**
+     * Returns the message content for a message flow step from the content cache,
+     * reading it from the database and caching it if it is not cached.
+     * 
+     * @param messageFlowId
+     * @return
+     */
+    private String retrieveMessageContent(long messageFlowId) {
+        String content = contentCache.get(messageFlowId);
+
+        if (content == null) {
+            content = messagingFlowService.retrieveMessageContent(messageFlowId);
+            contentCache.put(messageFlowId, content);
+        }
+
+        return content;
+    }
+
+    /**
+     * Returns the message content for a message flow step as text from the content
+     * cache, reading it from the database and caching it if it is not cached. Content
+     * in the blob store is not read or cached. It is returned as content which
+     * streams from the blob store.
+     * 
+     * @param messageFlowId
+     * @return the content text or blob store content.
+     */
+    private Object openMessageContent(long messageFlowId) {
+        String content = contentCache.get(messageFlowId);
+
+        if (content != null) {
+            return content;
+        }
+
+        MessageContent storedContent = messagingFlowService.openMessageContent(messageFlowId);
+
+        if (storedContent.getBlobAddress() != null) {
+            return storedContent;
+        }
+
+        content = storedContent.asString();
+        contentCache.put(messageFlowId, content);
+
+        return content;
     }
 
     /**
@@ -186,6 +331,44 @@ public class MessageProcessor {
         messagingFlowService.deleteEvent(eventId);
     }
 
+    /**
+     * Claims a batch of outbox events for dispatch. The events are deleted with a
+     * single statement and the message flow step ids to forward are returned. This
+     * must be called within the dispatch transaction so the delete and the
+     * forwarding of the messages are committed together.
+     * 
+     * @param exchange
+     * @return
+     */
+    public List<Long> claimMessageFlowEvents(Exchange exchange) {
+        long componentRouteId = exchange.getProperty(COMPONENT_ROUTE_ID, Long.class);
+        MessageFlowTypeEvent type = exchange.getProperty(OUTBOX_EVENT_TYPE, MessageFlowTypeEvent.class);
+        int batchSize = exchange.getProperty(OUTBOX_BATCH_SIZE, Integer.class);
+
+        List<MessageFlowEventDto> events = null;
+
+        if (exchange.getProperty(OUTBOX_CLAIM_MODE, OutboxClaimMode.IGNITE_LOCK, OutboxClaimMode.class) == OutboxClaimMode.SKIP_LOCKED) {
+            events = messagingFlowService.claimEvents(componentRouteId, batchSize, type);
+        } else {
+            // The caller holds the distributed lock for this components events.
+            events = messagingFlowService.getEvents(componentRouteId, batchSize, type);
+        }
+
+        List<Long> eventIds = new ArrayList<>(events.size());
+        List<Long> messageFlowIds = new ArrayList<>(events.size());
+
+        for (MessageFlowEventDto event : events) {
+            eventIds.add(event.getId());
+            messageFlowIds.add(event.getMessageFlowId());
+        }
+
+        messagingFlowService.deleteEvents(eventIds);
+
+        exchange.setProperty(OUTBOX_EVENT_COUNT, events.size());
+
+        return messageFlowIds;
+    }
+
     public void updateCache(Exchange exchange, long eventId) {
         System.out.println("Update cache");
 
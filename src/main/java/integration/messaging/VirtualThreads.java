@@ -0,0 +1,68 @@
+package integration.messaging;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads. The module is compiled for Java 17 so virtual
+ * threads are looked up reflectively and are only available when running on
+ * Java 21 or later.
+ * 
+ * @author Brendan Douglas
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Are virtual threads supported by the running JVM.
+     * 
+     * @return
+     */
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns an executor which starts a new virtual thread for each task.
+     * 
+     * @return
+     * @throws UnsupportedOperationException if virtual threads are not supported.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+        }
+    }
+
+    /**
+     * Returns a factory which creates virtual threads named with the supplied
+     * prefix followed by a counter.
+     * 
+     * @param prefix
+     * @return
+     * @throws UnsupportedOperationException if virtual threads are not supported.
+     */
+    public static ThreadFactory newVirtualThreadFactory(String prefix) {
+        try {
+            // The builder implementation is not accessible so its methods are looked up on the public interface.
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package integration.messaging.component;
 
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.Lock;
 
 import org.apache.camel.CamelContext;
+import org.apache.camel.CamelExecutionException;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.apache.camel.ProducerTemplate;
@@ -14,17 +16,23 @@ import org.apache.camel.builder.RouteBuilder;
 import org.apache.ignite.Ignite;
 import org.apache.ignite.IgniteCache;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.context.ApplicationEventPublisher;
 
 import integration.core.domain.messaging.MessageFlowTypeEvent;
 import integration.core.dto.ComponentDto;
 import integration.core.dto.ComponentRouteDto;
-import integration.core.dto.MessageFlowEventDto;
 import integration.core.dto.RouteDto;
 import integration.core.exception.ConfigurationException;
 import integration.core.service.ConfigurationService;
 import integration.messaging.ComponentIdentifier;
 import integration.messaging.MessageProcessor;
+import integration.messaging.outbox.AdaptiveBatchSize;
+import integration.messaging.outbox.OutboxClaimMode;
+import integration.messaging.outbox.OutboxDispatcher;
+import integration.messaging.ConcurrencyLimiter;
+import integration.messaging.consumer.JmsConsumerAutoscaler;
+import integration.messaging.outbox.QueueDepthMonitor;
+import integration.messaging.service.ComponentRouteChanged;
 import integration.messaging.service.MessagingFlowService;
 
 /**
@@ -38,8 +46,8 @@ import integration.messaging.service.MessagingFlowService;
  * Messaging components can be communication points, processing steps (eg. transformers, filters, splitters) and route connectors.
  * 
  * To ensure guaranteed message delivery between components the transactional outbox pattern is used.  Firstly a message is written to an event table within the same transactions as the 
- * message flow record is stored in the main table.  A timer process then processes these events and within the same transaction the event is removed and a message written to a JMS topic to be 
- * picked up by another component.  
+ * message flow record is stored in the main table.  Once that transaction commits the outbox dispatcher processes these events and within the same transaction the event is removed and a
+ * message written to a JMS topic to be picked up by another component.  A single node wide timer process sweeps for any events which were not dispatched on commit.  
  * 
  * @author Brendan Douglas
  *
@@ -51,6 +59,20 @@ public abstract class BaseMessagingComponent extends RouteBuilder implements Com
 
     public static final String ERROR_MESSAGE = "ERROR_MESSAGE";
 
+    // Component properties which control the transactional outbox dispatch.
+    public static final String OUTBOX_MIN_BATCH_SIZE = "OUTBOX_MIN_BATCH_SIZE";
+    public static final String OUTBOX_MAX_BATCH_SIZE = "OUTBOX_MAX_BATCH_SIZE";
+    public static final String OUTBOX_TARGET_BATCH_TIME = "OUTBOX_TARGET_BATCH_TIME";
+    public static final String OUTBOX_MAX_DRAIN_TIME = "OUTBOX_MAX_DRAIN_TIME";
+    public static final String OUTBOX_BATCH_DISPATCH = "OUTBOX_BATCH_DISPATCH";
+    public static final String OUTBOX_DISPATCH_CONCURRENCY = "OUTBOX_DISPATCH_CONCURRENCY";
+    public static final String OUTBOX_HIGH_WATER_MARK = "OUTBOX_HIGH_WATER_MARK";
+    public static final String OUTBOX_LOW_WATER_MARK = "OUTBOX_LOW_WATER_MARK";
+
+    // Component properties which control the number of concurrent consumers of each JMS consumer route.
+    public static final String JMS_CONCURRENT_CONSUMERS = "JMS_CONCURRENT_CONSUMERS";
+    public static final String JMS_MAX_CONCURRENT_CONSUMERS = "JMS_MAX_CONCURRENT_CONSUMERS";
+
     @Autowired
     protected Ignite ignite;
 
@@ -67,12 +89,29 @@ public abstract class BaseMessagingComponent extends RouteBuilder implements Com
 
     protected Map<String, String> componentProperties;
 
+    protected Map<MessageFlowTypeEvent, AdaptiveBatchSize> batchSizes = new EnumMap<>(MessageFlowTypeEvent.class);
+
     @Autowired
     protected MessagingFlowService messagingFlowService;
 
     @Autowired
     protected ProducerTemplate producerTemplate;
 
+    @Autowired
+    protected OutboxDispatcher outboxDispatcher;
+
+    @Autowired
+    protected QueueDepthMonitor queueDepthMonitor;
+
+    @Autowired
+    protected JmsConsumerAutoscaler jmsConsumerAutoscaler;
+
+    @Autowired
+    protected ConcurrencyLimiter concurrencyLimiter;
+
+    @Autowired
+    protected ApplicationEventPublisher applicationEventPublisher;
+
     public BaseMessagingComponent(String componentName) {
         this.identifier = new ComponentIdentifier(componentName);
     }
@@ -108,12 +147,40 @@ public abstract class BaseMessagingComponent extends RouteBuilder implements Com
         getIdentifier().setRouteId(routeDto.getId());
         getIdentifier().setComponentId(componentDto.getId());
 
+        // The component route has been (re)configured so discard anything cached for it.
+        applicationEventPublisher.publishEvent(new ComponentRouteChanged(componentRouteDto.getId()));
+
         componentProperties = componentDto.getProperties();
 
         // Now we need to read the component state from the database to see if it should
         // be started on startup.
         isInboundRunning = configurationService.isInboundRunning(componentRouteDto.getId());
         isOutboundRunning = configurationService.isOutboundRunning(componentRouteDto.getId());
+
+        // Register the transactional outbox dispatch for each event type.  These are run when an event is committed and by the node wide safety net sweep.
+        registerOutboxDispatch(MessageFlowTypeEvent.COMPONENT_INBOUND_PROCESSING_COMPLETE,
+                "direct:addToInboundProcessingCompleteQueue-" + identifier.getComponentPath());
+
+        registerOutboxDispatch(MessageFlowTypeEvent.COMPONENT_OUTBOUND_PROCESSING_COMPLETE,
+                "direct:addToOutboundProcessingCompleteTopic-" + identifier.getComponentPath());
+
+        registerOutboxDispatch(MessageFlowTypeEvent.MESSAGE_READY_FOR_SENDING,
+                "direct:sendMessageToDestination-" + identifier.getComponentPath());
+    }
+
+    /**
+     * Registers the transactional outbox dispatch for an event type.  The batch size limits and, when events are claimed with SKIP LOCKED, the number of concurrent dispatch
+     * runs on this node can be configured per component.
+     * 
+     * @param type
+     * @param endpointUri
+     */
+    private void registerOutboxDispatch(MessageFlowTypeEvent type, String endpointUri) {
+        batchSizes.put(type, new AdaptiveBatchSize(getIntegerProperty(OUTBOX_MIN_BATCH_SIZE, 20), getIntegerProperty(OUTBOX_MAX_BATCH_SIZE, 500),
+                getIntegerProperty(OUTBOX_TARGET_BATCH_TIME, 1000)));
+
+        outboxDispatcher.register(identifier.getComponentRouteId(), identifier.getComponentPath(), type, getIntegerProperty(OUTBOX_DISPATCH_CONCURRENCY, 1),
+                () -> processEvents(type, endpointUri));
     }
 
     public List<String> getRoutes(Exchange exchange) {
@@ -232,112 +299,229 @@ public abstract class BaseMessagingComponent extends RouteBuilder implements Com
     }
 
     /**
-     * A timer to process messages which have completed inbound processing.  The message gets added to a queue to be picked up by the components outbound processor.
+     * Dispatches this components events of the supplied type by sending batches of them to the supplied endpoint.  The endpoint claims and removes a batch of events and forwards
+     * the messages within a single transaction.
+     * 
+     * In IGNITE_LOCK claim mode a distributed lock is held for the whole dispatch so only one node dispatches this components events.  In SKIP_LOCKED claim mode each batch
+     * claims its own events within the dispatch transaction so no lock is needed and other nodes and threads can dispatch in parallel.
+     * 
+     * Events dispatched to a JMS queue are subject to backpressure.  No more is dispatched once the queue reaches the components high water mark and dispatch resumes once
+     * the queue has drained to the low water mark, so a stopped or slow consumer leaves the messages in the database outbox rather than in broker memory.
+     * 
+     * Batches are dispatched until the backlog has been drained.  The batch size adapts to the backlog and the time taken to dispatch each batch.  If the backlog has not
+     * been drained within the maximum drain time another dispatch is requested so other components get a turn.
+     * 
+     * @param type
+     * @param endpointUri
      */
-    @Scheduled(fixedRate = 100)
-    public void processComponentInboundProcessingCompleteEvents() {
+    protected void processEvents(MessageFlowTypeEvent type, String endpointUri) {
         if (!camelContext.isStarted()) {
             return;
         }
 
-        IgniteCache<String, Integer> cache = ignite.getOrCreateCache("eventCache3");
+        AdaptiveBatchSize batchSize = batchSizes.get(type);
 
-        List<MessageFlowEventDto> events = null;
+        boolean backlogRemaining = false;
 
-        Lock lock = cache.lock(MessageFlowTypeEvent.COMPONENT_INBOUND_PROCESSING_COMPLETE + "-" + identifier.getComponentPath());
+        int maxDrainTime = getIntegerProperty(OUTBOX_MAX_DRAIN_TIME, 5000);
+
+        String downstreamQueue = getDownstreamQueue(type);
+
+        Lock lock = null;
+
+        if (outboxDispatcher.getClaimMode() == OutboxClaimMode.IGNITE_LOCK) {
+            IgniteCache<String, Integer> cache = ignite.getOrCreateCache(OutboxDispatcher.OUTBOX_CACHE);
+            lock = cache.lock(type + "-" + identifier.getComponentPath());
+        }
 
         try {
             // Acquire the lock
-            lock.lock();
+            if (lock != null) {
+                lock.lock();
+            }
 
-            events = messagingFlowService.getEvents(identifier.getComponentRouteId(), 20,
-                    MessageFlowTypeEvent.COMPONENT_INBOUND_PROCESSING_COMPLETE);
+            long drainStart = System.currentTimeMillis();
 
-            // Each event read we add to the queue and then delete the event and update the
-            // master table.
-            for (MessageFlowEventDto event : events) {
-                long messageFlowId = event.getMessageFlowId();
+            do {
+                int numberToRead = batchSize.get();
 
-                producerTemplate.sendBodyAndHeader("direct:addToInboundProcessingCompleteQueue-" + identifier.getComponentPath(),
-                        event.getId(), MessageProcessor.MESSAGE_FLOW_STEP_ID, messageFlowId);
-            }
+                if (downstreamQueue != null) {
+                    int capacity = queueDepthMonitor.getAvailableCapacity(downstreamQueue, getIntegerProperty(OUTBOX_HIGH_WATER_MARK, 1000),
+                            getIntegerProperty(OUTBOX_LOW_WATER_MARK, 200));
+
+                    // Paused.  The sweep will try again while events are pending.
+                    if (capacity == 0) {
+                        backlogRemaining = false;
+                        break;
+                    }
+
+                    numberToRead = Math.min(numberToRead, capacity);
+                }
+
+                long batchStart = System.nanoTime();
+
+                int numberDispatched = dispatchEvents(type, endpointUri, numberToRead);
+
+                if (downstreamQueue != null) {
+                    queueDepthMonitor.recordDispatched(downstreamQueue, numberDispatched);
+                }
+
+                batchSize.update(numberToRead, numberDispatched, System.nanoTime() - batchStart);
+
+                // A full batch means there are probably more events waiting.
+                backlogRemaining = numberDispatched == numberToRead;
+            } while (backlogRemaining && camelContext.isStarted()
+                    && System.currentTimeMillis() - drainStart < maxDrainTime);
+
+            outboxDispatcher.recordBacklog(identifier.getComponentRouteId(), type,
+                    backlogRemaining ? messagingFlowService.getEventCount(identifier.getComponentRouteId(), type) : 0);
         } finally {
             // Release the lock
-            lock.unlock();
+            if (lock != null) {
+                lock.unlock();
+            }
+        }
+
+        if (backlogRemaining) {
+            outboxDispatcher.signal(identifier.getComponentRouteId(), type);
         }
     }
-    
+
     
     /**
-     * A timer to process messages which have completed outbound processing.  The message get added to a topic for other components to consume.
+     * Returns the JMS queue events of the supplied type are dispatched to or null if they are not dispatched to a queue.  Backpressure is only applied to queues as these have a 
+     * single known consumer.
+     * 
+     * @param type
+     * @return
      */
-    @Scheduled(fixedRate = 100)
-    public void processComponentOutboundProcessingCompleteEvents() {
-        if (!camelContext.isStarted()) {
-            return;
+    protected String getDownstreamQueue(MessageFlowTypeEvent type) {
+        if (type == MessageFlowTypeEvent.COMPONENT_INBOUND_PROCESSING_COMPLETE) {
+            return "inboundProcessingComplete-" + identifier.getComponentPath();
         }
 
-        IgniteCache<String, Integer> cache = ignite.getOrCreateCache("eventCache3");
+        return null;
+    }
+
+    
+    /**
+     * Are events of the supplied type dispatched in batches.  Batch dispatch is only safe when everything the dispatch endpoint does is part of the transaction, otherwise
+     * a failure part way through a batch repeats the work already done for the earlier events.
+     * 
+     * @param type
+     * @return
+     */
+    protected boolean isBatchDispatch(MessageFlowTypeEvent type) {
+        return getBooleanProperty(OUTBOX_BATCH_DISPATCH, true);
+    }
 
-        List<MessageFlowEventDto> events = null;
+    
+    /**
+     * Dispatches up to the supplied number of events.  In batch dispatch mode (the default) all the events are dispatched in a single transaction so the commit and broker
+     * round trip are paid once per batch.  Otherwise each event is dispatched in its own transaction.
+     * 
+     * @param type
+     * @param endpointUri
+     * @param numberToDispatch
+     * @return the number of events dispatched.
+     */
+    private int dispatchEvents(MessageFlowTypeEvent type, String endpointUri, int numberToDispatch) {
+        if (isBatchDispatch(type)) {
+            return dispatchBatch(type, endpointUri, numberToDispatch);
+        }
 
-        Lock lock = cache.lock(MessageFlowTypeEvent.COMPONENT_OUTBOUND_PROCESSING_COMPLETE + "-" + identifier.getComponentPath());
+        int numberDispatched = 0;
 
-        try {
-            // Acquire the lock
-            lock.lock();
+        while (numberDispatched < numberToDispatch && dispatchBatch(type, endpointUri, 1) == 1) {
+            numberDispatched++;
+        }
 
-            events = messagingFlowService.getEvents(identifier.getComponentRouteId(), 20,
-                    MessageFlowTypeEvent.COMPONENT_OUTBOUND_PROCESSING_COMPLETE);
+        return numberDispatched;
+    }
 
-            // Each event read we add to the queue and then delete the event and update the
-            // master table.
-            for (MessageFlowEventDto event : events) {
-                long messageFlowId = event.getMessageFlowId();
+    
+    /**
+     * Sends a single batch dispatch request to the supplied endpoint.
+     * 
+     * @param type
+     * @param endpointUri
+     * @param batchSize
+     * @return the number of events dispatched.
+     */
+    private int dispatchBatch(MessageFlowTypeEvent type, String endpointUri, int batchSize) {
+        Exchange result = producerTemplate.send(endpointUri, exchange -> {
+            exchange.setProperty(MessageProcessor.COMPONENT_ROUTE_ID, identifier.getComponentRouteId());
+            exchange.setProperty(MessageProcessor.OUTBOX_EVENT_TYPE, type);
+            exchange.setProperty(MessageProcessor.OUTBOX_BATCH_SIZE, batchSize);
+            exchange.setProperty(MessageProcessor.OUTBOX_CLAIM_MODE, outboxDispatcher.getClaimMode());
+        });
 
-                producerTemplate.sendBodyAndHeader("direct:addToOutboundProcessingCompleteTopic-" + identifier.getComponentPath(),
-                        event.getId(), MessageProcessor.MESSAGE_FLOW_STEP_ID, messageFlowId);
-            }
-        } finally {
-            // Release the lock
-            lock.unlock();
+        if (result.getException() != null) {
+            throw CamelExecutionException.wrapCamelExecutionException(result, result.getException());
         }
+
+        return result.getProperty(MessageProcessor.OUTBOX_EVENT_COUNT, 0, Integer.class);
     }
 
     
     /**
-     * A timer to process messages which are ready for sending to the final destination.
+     * Returns a boolean component property or the default value if the property has not been set.
+     * 
+     * @param name
+     * @param defaultValue
+     * @return
      */
-    @Scheduled(fixedRate = 100)
-    public void processMessageReadyForSendingEvents() {
-        if (!camelContext.isStarted()) {
-            return;
+    protected boolean getBooleanProperty(String name, boolean defaultValue) {
+        if (componentProperties == null || componentProperties.get(name) == null) {
+            return defaultValue;
         }
 
-        IgniteCache<String, Integer> cache = ignite.getOrCreateCache("eventCache3");
+        return Boolean.parseBoolean(componentProperties.get(name).trim());
+    }
 
-        List<MessageFlowEventDto> events = null;
+    
+    /**
+     * The number of concurrent consumers each JMS consumer route of this component starts with.  On virtual threads the default is higher as a consumer no longer
+     * costs a platform thread.
+     * 
+     * @return
+     */
+    protected int getConcurrentConsumers() {
+        return getIntegerProperty(JMS_CONCURRENT_CONSUMERS, concurrencyLimiter.isVirtual() ? concurrencyLimiter.getVirtualConcurrentConsumers() : 5);
+    }
 
-        Lock lock = cache.lock(MessageFlowTypeEvent.MESSAGE_READY_FOR_SENDING + "-" + identifier.getComponentPath());
 
-        try {
-            // Acquire the lock
-            lock.lock();
+    /**
+     * Registers a JMS consumer route of this component with the autoscaler.  The route is only scaled when the maximum number of concurrent consumers is greater than the
+     * number it starts with.
+     * 
+     * @param routeId
+     * @param queueName the queue the route consumes from.
+     */
+    protected void registerJmsConsumer(String routeId, String queueName) {
+        int concurrentConsumers = getConcurrentConsumers();
 
-            events = messagingFlowService.getEvents(identifier.getComponentRouteId(), 20,
-                    MessageFlowTypeEvent.MESSAGE_READY_FOR_SENDING);
+        jmsConsumerAutoscaler.register(routeId, queueName, identifier.getComponentPath(), concurrentConsumers,
+                getIntegerProperty(JMS_MAX_CONCURRENT_CONSUMERS, concurrentConsumers));
+    }
 
-            // Each event read we add to the queue and then delete the event and update the
-            // master table.
-            for (MessageFlowEventDto event : events) {
-                long messageFlowId = event.getMessageFlowId();
 
-                producerTemplate.sendBodyAndHeader("direct:sendMessageToDestination-" + identifier.getComponentPath(),
-                        event.getId(), MessageProcessor.MESSAGE_FLOW_STEP_ID, messageFlowId);
-            }
-        } finally {
-            // Release the lock
-            lock.unlock();
+    /**
+     * Returns an integer component property or the default value if the property has not been set.
+     * 
+     * @param name
+     * @param defaultValue
+     * @return
+     */
+    protected int getIntegerProperty(String name, int defaultValue) {
+        if (componentProperties == null || componentProperties.get(name) == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(componentProperties.get(name).trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Invalid value for component property " + name + ". Component: " + identifier.getComponentPath());
         }
     }
 
@@ -350,30 +534,26 @@ public abstract class BaseMessagingComponent extends RouteBuilder implements Com
     public void configure() throws Exception {
         
         
-        // A route called within a transactional outbox process to add a message flow step event id to the inbound processing complete event queue.  This routes adds the id to the queue and
-        // deletes the source event within a single transaction.  A queue is used here as we only want a single consumer to process the message and the consumer here is the components
-        // outbound processor.
+        // A route called within a transactional outbox process to add a batch of message flow step ids to the inbound processing complete event queue.  This routes claims and deletes
+        // the source events and adds the ids to the queue within a single transaction.  A queue is used here as we only want a single consumer to process the message and the consumer 
+        // here is the components outbound processor.
         from("direct:addToInboundProcessingCompleteQueue-" + identifier.getComponentPath())
             .routeId("addToInboundProcessingCompleteQueue-" + identifier.getComponentPath())
             .routeGroup(identifier.getComponentPath())
             .transacted()
-                .bean(messageProcessor, "deleteMessageFlowEvent(*)")
-                .process(new Processor() {
-
-                    @Override
-                    public void process(Exchange exchange) throws Exception {
-                        long workFlowStepId = (long) exchange.getMessage().getHeader(MessageProcessor.MESSAGE_FLOW_STEP_ID);
-                        exchange.getMessage().setBody(workFlowStepId);
-                    }
-    
-                })
-            .to("jms:queue:inboundProcessingComplete-" + identifier.getComponentPath());
+                .transform().method(messageProcessor, "claimMessageFlowEvents(*)")
+                .split(body())
+                    .setHeader(MessageProcessor.MESSAGE_FLOW_STEP_ID, body())
+                    .transform().method(messageProcessor, "inlineMessageContent(*)")
+                    .to("jms:queue:inboundProcessingComplete-" + identifier.getComponentPath())
+                .end();
         
         
         
         // Entry route for all component outbound processors.  This route reads a message id from an inbound processing complete queue and then performs the required outbound processing. 
         // The actual outbound processing is done in the direct:outboundProcessor route which the message is forwarded to.  This will vary depending on the type of component.
-        from("jms:queue:inboundProcessingComplete-" + identifier.getComponentPath() + "?acknowledgementModeName=CLIENT_ACKNOWLEDGE&concurrentConsumers=5")
+        from("jms:queue:inboundProcessingComplete-" + identifier.getComponentPath() + "?acknowledgementModeName=CLIENT_ACKNOWLEDGE&concurrentConsumers=" + getConcurrentConsumers())
+            .routeId("inboundProcessingCompleteReceiver-" + identifier.getComponentPath())
             .autoStartup(isOutboundRunning)
             .routeGroup(identifier.getComponentPath())
             .setHeader("contentType", constant(getContentType()))
@@ -381,6 +561,8 @@ public abstract class BaseMessagingComponent extends RouteBuilder implements Com
                 .transform()
                 .method(messageProcessor, "replaceMessageBodyIdWithMessageContent(*)")
                 .to("direct:outboundProcessor-" + identifier.getComponentPath());
+
+        registerJmsConsumer("inboundProcessingCompleteReceiver-" + identifier.getComponentPath(), "inboundProcessingComplete-" + identifier.getComponentPath());
         
                 
         
@@ -1,7 +1,5 @@
 package integration.messaging.component;
 
-import org.apache.camel.Exchange;
-import org.apache.camel.Processor;
 import org.apache.camel.builder.RouteBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -40,7 +38,7 @@ public class RouteTemplates extends RouteBuilder {
             .bean(messageProcessor, "storeOutboundMessageFlowStep(*,{{componentRouteId}})")
 
             // Filter the outbound message if required.
-            .bean("{{messageForwardingPolicy}}", "applyPolicy")
+            .bean("{{messageForwardingPolicy}}", "applyPolicyToContent")
 
             .choice()
                 .when(header(MessageForwardingPolicy.FORWARD_MESSAGE).isEqualTo(false))
@@ -50,25 +48,21 @@ public class RouteTemplates extends RouteBuilder {
                 .end();
 
         
-        // A route called within a transactional outbox process to add a message flow step event id to a virtual topic.  This routes adds the id to the topic and deletes the source event 
-        // within a single transaction.  A topic is used here as the message can be consumed by multiple other components.  This route is the final route in any component which
-        // produces messages for other components to consume.
+        // A route called within a transactional outbox process to add a batch of message flow step ids to a virtual topic.  This routes claims and deletes the source events and adds 
+        // the ids to the topic within a single transaction.  A topic is used here as the message can be consumed by multiple other components.  This route is the final route in any 
+        // component which produces messages for other components to consume.
         routeTemplate("addToOutboundProcessingCompleteTopicTemplate")
             .templateParameter("componentPath")
             .from("direct:addToOutboundProcessingCompleteTopic-{{componentPath}}")
             .routeId("addToOutboundProcessingCompleteTopic-{{componentPath}}")
             .routeGroup("{{componentPath}}")
             .transacted()
-                .bean(messageProcessor, "deleteMessageFlowEvent(*)")
-                .process(new Processor() {
-
-                    @Override
-                    public void process(Exchange exchange) throws Exception {
-                        long workFlowStepId = (long) exchange.getMessage().getHeader(MessageProcessor.MESSAGE_FLOW_STEP_ID);
-                        exchange.getMessage().setBody(workFlowStepId);
-                    }
-                })
-            .to("jms:topic:VirtualTopic.{{componentPath}}");
+                .transform().method(messageProcessor, "claimMessageFlowEvents(*)")
+                .split(body())
+                    .setHeader(MessageProcessor.MESSAGE_FLOW_STEP_ID, body())
+                    .transform().method(messageProcessor, "inlineMessageContent(*)")
+                    .to("jms:topic:VirtualTopic.{{componentPath}}")
+                .end();
     
         
         
@@ -79,7 +73,8 @@ public class RouteTemplates extends RouteBuilder {
                 .templateParameter("componentPath")
                 .templateParameter("componentRouteId")
                 .templateParameter("contentType")
-                .from("jms:VirtualTopic.{{sourceComponentPath}}::Consumer.{{componentPath}}.VirtualTopic.{{sourceComponentPath}}?acknowledgementModeName=CLIENT_ACKNOWLEDGE&concurrentConsumers=5")
+                .templateParameter("concurrentConsumers")
+                .from("jms:VirtualTopic.{{sourceComponentPath}}::Consumer.{{componentPath}}.VirtualTopic.{{sourceComponentPath}}?acknowledgementModeName=CLIENT_ACKNOWLEDGE&concurrentConsumers={{concurrentConsumers}}")
                 .routeId("messageReceiver-{{componentPath}}-{{sourceComponentPath}}")
                 .routeGroup("{{componentPath}}")
                 .setHeader("contentType", constant("{{contentType}}"))
@@ -91,7 +86,7 @@ public class RouteTemplates extends RouteBuilder {
                     .bean(messageProcessor, "storeInboundMessageFlowStep(*,{{componentRouteId}})")
 
                     // Inbound message filter.
-                    .bean("{{messageAcceptancePolicy}}", "applyPolicy")
+                    .bean("{{messageAcceptancePolicy}}", "applyPolicyToContent")
                     
                     .choice()
                         .when(header(MessageAcceptancePolicy.ACCEPT_MESSAGE).isEqualTo(false))
@@ -1,8 +1,5 @@
 package integration.messaging.component.communicationpoint;
 
-import org.apache.camel.Exchange;
-import org.apache.camel.Processor;
-
 import integration.messaging.MessageProcessor;
 import integration.messaging.component.SourceComponent;
 import integration.messaging.component.processingstep.filter.MessageForwardingPolicy;
@@ -24,7 +21,7 @@ public abstract class BaseRouteInboundConnector extends BaseRouteConnector imple
 
         // Inbound message flow into this component.  The message is read from a single topic.  In the future I might allow multiple topics.  This is the entry point for an
         // inbound route connector.
-        from("jms:VirtualTopic." + getName() + "::Consumer." + identifier.getComponentPath() + ".VirtualTopic." + getName() + "?acknowledgementModeName=CLIENT_ACKNOWLEDGE&concurrentConsumers=5")
+        from("jms:VirtualTopic." + getName() + "::Consumer." + identifier.getComponentPath() + ".VirtualTopic." + getName() + "?acknowledgementModeName=CLIENT_ACKNOWLEDGE&concurrentConsumers=" + getConcurrentConsumers())
             .routeId("messageReceiver-" + identifier.getComponentPath() + "-" + getName())
             .routeGroup(identifier.getComponentPath())
 
@@ -35,21 +32,21 @@ public abstract class BaseRouteInboundConnector extends BaseRouteConnector imple
                 .bean(messageProcessor, "storeInboundMessageFlowStep(*," + identifier.getComponentRouteId() + ")")
                 .bean(messageProcessor, "recordInboundProcessingCompleteEvent(*)");
 
+        registerJmsConsumer("messageReceiver-" + identifier.getComponentPath() + "-" + getName(),
+                "VirtualTopic." + getName() + "::Consumer." + identifier.getComponentPath() + ".VirtualTopic." + getName());
+
           
        
         // Process outbound processing complete events.
         from("direct:addToOutboundProcessingCompleteTopic-" + identifier.getComponentPath())
                 .routeGroup(identifier.getComponentPath())
                 .transacted()
-                    .bean(messageProcessor, "deleteMessageFlowEvent(*)")
-                    .process(new Processor() {
-    
-                        @Override
-                        public void process(Exchange exchange) throws Exception {
-                            long workFlowStepId = (long) exchange.getMessage().getHeader(MessageProcessor.MESSAGE_FLOW_STEP_ID);
-                            exchange.getMessage().setBody(workFlowStepId);
-                        }
-                    }).to("jms:topic:VirtualTopic." + identifier.getComponentPath());
+                    .transform().method(messageProcessor, "claimMessageFlowEvents(*)")
+                    .split(body())
+                        .setHeader(MessageProcessor.MESSAGE_FLOW_STEP_ID, body())
+                        .transform().method(messageProcessor, "inlineMessageContent(*)")
+                        .to("jms:topic:VirtualTopic." + identifier.getComponentPath())
+                    .end();
 
 
         
@@ -61,7 +58,7 @@ public abstract class BaseRouteInboundConnector extends BaseRouteConnector imple
             .bean(messageProcessor, "storeOutboundMessageFlowStep(*," + identifier.getComponentRouteId() + ")")
             
             // Filter the outbound message if required.
-            .bean(getMessageForwardingPolicy(), "applyPolicy")
+            .bean(getMessageForwardingPolicy(), "applyPolicyToContent")
 
             .choice()
                 .when(header(MessageForwardingPolicy.FORWARD_MESSAGE).isEqualTo(false))
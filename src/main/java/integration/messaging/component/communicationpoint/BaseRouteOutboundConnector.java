@@ -3,8 +3,6 @@ package integration.messaging.component.communicationpoint;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.camel.Exchange;
-import org.apache.camel.Processor;
 import org.apache.camel.builder.TemplatedRouteBuilder;
 
 import integration.messaging.MessageProcessor;
@@ -40,8 +38,12 @@ public abstract class BaseRouteOutboundConnector extends BaseRouteConnector impl
                 .parameter("sourceComponentPath", sourceComponent)
                 .parameter("componentRouteId", identifier.getComponentRouteId())
                 .parameter("contentType", getContentType())
+                .parameter("concurrentConsumers", getConcurrentConsumers())
                 .bean("messageAcceptancePolicy", getMessageAcceptancePolicy())
                 .add();
+
+            registerJmsConsumer("messageReceiver-" + identifier.getComponentPath() + "-" + sourceComponent,
+                    "VirtualTopic." + sourceComponent + "::Consumer." + identifier.getComponentPath() + ".VirtualTopic." + sourceComponent);
         }
 
                
@@ -57,16 +59,12 @@ public abstract class BaseRouteOutboundConnector extends BaseRouteConnector impl
         from("direct:addToOutboundProcessingCompleteTopic-" + identifier.getComponentPath())
             .routeGroup(identifier.getComponentPath())
             .transacted()
-                .bean(messageProcessor, "deleteMessageFlowEvent(*)")
-                .process(new Processor() {
-    
-                    @Override
-                    public void process(Exchange exchange) throws Exception {
-                        long workFlowStepId = (long) exchange.getMessage().getHeader(MessageProcessor.MESSAGE_FLOW_STEP_ID);
-                        exchange.getMessage().setBody(workFlowStepId);
-                    }
-                })
-                .to("jms:topic:VirtualTopic." + getName());
+                .transform().method(messageProcessor, "claimMessageFlowEvents(*)")
+                .split(body())
+                    .setHeader(MessageProcessor.MESSAGE_FLOW_STEP_ID, body())
+                    .transform().method(messageProcessor, "inlineMessageContent(*)")
+                    .to("jms:topic:VirtualTopic." + getName())
+                .end();
     }
 
 }
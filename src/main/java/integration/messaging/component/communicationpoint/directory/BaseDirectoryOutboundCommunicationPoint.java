@@ -2,6 +2,9 @@ package integration.messaging.component.communicationpoint.directory;
 
 import org.apache.camel.builder.TemplatedRouteBuilder;
 
+import integration.core.domain.messaging.MessageFlowTypeEvent;
+import integration.messaging.MessageProcessor;
+
 import integration.messaging.component.communicationpoint.BaseOutboundCommunicationPoint;
 
 /**
@@ -20,6 +23,19 @@ public abstract class BaseDirectoryOutboundCommunicationPoint extends BaseOutbou
         return componentProperties.get("TARGET_FOLDER");
     }
 
+    /**
+     * Writing a file is not transactional so if a batch failed part way through the files already written would be written again when the batch is retried.  Messages
+     * are sent to the directory one event per transaction unless batch dispatch has been explicitly enabled for the component.
+     */
+    @Override
+    protected boolean isBatchDispatch(MessageFlowTypeEvent type) {
+        if (type == MessageFlowTypeEvent.MESSAGE_READY_FOR_SENDING) {
+            return getBooleanProperty(OUTBOX_BATCH_DISPATCH, false);
+        }
+
+        return super.isBatchDispatch(type);
+    }
+
     @Override
     public String getToUriString() {
         return "file:" + getDestinationFolder();
@@ -39,8 +55,12 @@ public abstract class BaseDirectoryOutboundCommunicationPoint extends BaseOutbou
                 .parameter("sourceComponentPath", sourceComponent)
                 .parameter("componentRouteId", identifier.getComponentRouteId())
                 .parameter("contentType", getContentType())
+                .parameter("concurrentConsumers", getConcurrentConsumers())
                 .bean("messageAcceptancePolicy", getMessageAcceptancePolicy())
                 .add();
+
+            registerJmsConsumer("messageReceiver-" + identifier.getComponentPath() + "-" + sourceComponent,
+                    "VirtualTopic." + sourceComponent + "::Consumer." + identifier.getComponentPath() + ".VirtualTopic." + sourceComponent);
         }
 
         
@@ -54,14 +74,17 @@ public abstract class BaseDirectoryOutboundCommunicationPoint extends BaseOutbou
 
         
         
-        // Sends the message to the final destination which is the configured directory.  This is called from a transaction outbox process so we are guaranteed the message will be stored. 
+        // Sends a batch of messages to the final destination which is the configured directory.  This is called from a transaction outbox process so we are guaranteed the message will be stored. 
         from("direct:sendMessageToDestination-" + identifier.getComponentPath())
             .routeId("sendMessageToDestination-" + identifier.getComponentPath())
             .routeGroup(identifier.getComponentPath())
             .transacted()
-                .bean(messageProcessor, "deleteMessageFlowEvent(*)")
-                .transform().method(messageProcessor, "replaceMessageBodyIdWithMessageContent(*)")
-                .bean(messageProcessor, "storeOutboundMessageFlowStep(*," + identifier.getComponentRouteId() + ")")
-                .to(getToUriString());
+                .transform().method(messageProcessor, "claimMessageFlowEvents(*)")
+                .split(body())
+                    .setHeader(MessageProcessor.MESSAGE_FLOW_STEP_ID, body())
+                    .transform().method(messageProcessor, "replaceMessageBodyIdWithMessageContent(*)")
+                    .bean(messageProcessor, "storeOutboundMessageFlowStep(*," + identifier.getComponentRouteId() + ")")
+                    .to(getToUriString())
+                .end();
     }
 }
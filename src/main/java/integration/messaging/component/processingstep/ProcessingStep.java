@@ -44,8 +44,12 @@ public abstract class ProcessingStep extends BaseMessagingComponent implements S
                 .parameter("sourceComponentPath", sourceComponent)
                 .parameter("componentRouteId", identifier.getComponentRouteId())
                 .parameter("contentType", constant(getContentType()))
+                .parameter("concurrentConsumers", getConcurrentConsumers())
                 .bean("messageAcceptancePolicy", getMessageAcceptancePolicy())
                 .add();
+
+            registerJmsConsumer("messageReceiver-" + identifier.getComponentPath() + "-" + sourceComponent,
+                    "VirtualTopic." + sourceComponent + "::Consumer." + identifier.getComponentPath() + ".VirtualTopic." + sourceComponent);
         }
 
         
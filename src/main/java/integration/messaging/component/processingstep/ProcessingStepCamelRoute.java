@@ -2,9 +2,6 @@ package integration.messaging.component.processingstep;
 
 import java.util.List;
 
-import org.apache.camel.Exchange;
-import org.apache.camel.Processor;
-
 import integration.messaging.BaseMessagingCamelRoute;
 import integration.messaging.MessageProcessor;
 import integration.messaging.component.processingstep.filter.MessageAcceptancePolicy;
@@ -47,14 +44,12 @@ public class ProcessingStepCamelRoute extends BaseMessagingCamelRoute {
 
         // Process outbound processing complete events.
         from("direct:addToOutboundProcessingCompleteTopic-" + identifier.getComponentPath())
-                .routeGroup(identifier.getComponentPath()).transacted("").bean(messageProcessor, "deleteMessageFlowEvent(*)")
-                .process(new Processor() {
-
-                    @Override
-                    public void process(Exchange exchange) throws Exception {
-                        long workFlowStepId = (long) exchange.getMessage().getHeader(MessageProcessor.MESSAGE_FLOW_STEP_ID);
-                        exchange.getMessage().setBody(workFlowStepId);
-                    }
-                }).to("jms:topic:VirtualTopic." + identifier.getComponentPath());
+                .routeGroup(identifier.getComponentPath()).transacted("")
+                .transform().method(messageProcessor, "claimMessageFlowEvents(*)")
+                .split(body())
+                    .setHeader(MessageProcessor.MESSAGE_FLOW_STEP_ID, body())
+                    .transform().method(messageProcessor, "inlineMessageContent(*)")
+                    .to("jms:topic:VirtualTopic." + identifier.getComponentPath())
+                .end();
     }
 }
\ No newline at end of file
@@ -22,7 +22,7 @@ public abstract class BaseFilterProcessingStep extends ProcessingStep {
             .bean(messageProcessor, "storeOutboundMessageFlowStep(*," + identifier.getComponentRouteId() + ")")
     
             // Outbound message filter.
-            .bean(getMessageForwardingPolicy(), "applyPolicy")
+            .bean(getMessageForwardingPolicy(), "applyPolicyToContent")
     
             .choice()
                 .when(header(MessageForwardingPolicy.FORWARD_MESSAGE).isEqualTo(false))
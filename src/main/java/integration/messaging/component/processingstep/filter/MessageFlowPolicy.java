@@ -2,12 +2,28 @@ package integration.messaging.component.processingstep.filter;
 
 import org.apache.camel.Exchange;
 
+import integration.messaging.content.MessageContent;
+
 public abstract class MessageFlowPolicy {
     public static final String REJECT_MESSAGE = "REJECT_MESSAGE";
     public static final String FILTER_NAME = "FILTER_NAME";
     public static final String REASON = "REASON";
 
     public void applyPolicy(Exchange exchange, String messageContent) throws FilterException {
+        apply(exchange, MessageContent.of(messageContent));
+    }
+
+    /**
+     * Applies the policy to the exchange body without first converting it to text.
+     * 
+     * @param exchange
+     * @throws FilterException
+     */
+    public void applyPolicyToContent(Exchange exchange) throws FilterException {
+        apply(exchange, MessageContent.from(exchange));
+    }
+
+    private void apply(Exchange exchange, MessageContent messageContent) throws FilterException {
         try {
             boolean acceptMessage = applyPolicy(messageContent);
 
@@ -28,5 +44,18 @@ public abstract class MessageFlowPolicy {
 
     public abstract String getHeader();
 
+    /**
+     * Applies the policy to the content. Defaults to decoding the content and
+     * applying the text version. A policy which works with bytes overrides this and
+     * implements the text version by wrapping the text and calling it.
+     * 
+     * @param messageContent
+     * @return
+     * @throws FilterException
+     */
+    public boolean applyPolicy(MessageContent messageContent) throws FilterException {
+        return applyPolicy(messageContent.asString());
+    }
+
     public abstract boolean applyPolicy(String messageContent) throws FilterException;
 }
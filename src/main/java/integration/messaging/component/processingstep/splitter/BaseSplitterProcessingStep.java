@@ -1,7 +1,8 @@
 package integration.messaging.component.processingstep.splitter;
 
+import org.springframework.beans.factory.annotation.Autowired;
+
 import integration.messaging.component.processingstep.ProcessingStep;
-import integration.messaging.component.processingstep.filter.MessageForwardingPolicy;
 
 /**
  * Base class for splitting a message into 1 or more messages. A splitter is
@@ -10,6 +11,18 @@ import integration.messaging.component.processingstep.filter.MessageForwardingPo
  */
 public abstract class BaseSplitterProcessingStep extends ProcessingStep {
 
+    // The number of split parts stored together.
+    public static final String SPLIT_CHUNK_SIZE = "SPLIT_CHUNK_SIZE";
+
+    // Process the chunks of split parts in parallel on the split worker pool.
+    public static final String SPLIT_PARALLEL = "SPLIT_PARALLEL";
+
+    // When processing in parallel, record the outbox events in the order the parts were split.
+    public static final String SPLIT_PRESERVE_ORDER = "SPLIT_PRESERVE_ORDER";
+
+    @Autowired
+    protected SplitWorkerPool splitWorkerPool;
+
     public BaseSplitterProcessingStep(String componentName) {
         super(componentName);
     }
@@ -20,20 +33,33 @@ public abstract class BaseSplitterProcessingStep extends ProcessingStep {
     public void configure() throws Exception {
         super.configure();
 
+        int chunkSize = Math.max(1, getIntegerProperty(SPLIT_CHUNK_SIZE, 100));
+
+        if (getBooleanProperty(SPLIT_PARALLEL, false)) {
+            // The chunks are encoded, filtered and stored by the split worker pool, each in its own transaction.  Their outbox events are recorded on this thread
+            // as each chunk completes so they are in this transaction and nothing is forwarded unless the whole message is processed.
+            from("direct:process-" + identifier.getComponentPath()).routeId("process-" + identifier.getComponentPath())
+                .routeGroup(identifier.getComponentPath())
+                .process(new ParallelSplitProcessor(getSplitter(), messagingFlowService, getMessageForwardingPolicy(), producerTemplate, splitWorkerPool,
+                        identifier.getComponentRouteId(), "direct:filterMessage-" + identifier.getComponentPath(), getContentType(), chunkSize,
+                        getBooleanProperty(SPLIT_PRESERVE_ORDER, true)));
+
+            return;
+        }
+
+        SplitChunkProcessor chunkProcessor = new SplitChunkProcessor(messagingFlowService, getMessageForwardingPolicy(), producerTemplate,
+                identifier.getComponentRouteId(), "direct:filterMessage-" + identifier.getComponentPath());
+
         from("direct:process-" + identifier.getComponentPath()).routeId("process-" + identifier.getComponentPath())
             .routeGroup(identifier.getComponentPath())
-            .split().method(getSplitter(), "split")
-            .setHeader("contentType", constant(getContentType()))
-            .bean(messageProcessor, "storeOutboundMessageFlowStep(*," + identifier.getComponentRouteId() + ")")
-
-            // Outbound message filter.
-            .bean(getMessageForwardingPolicy(), "applyPolicy")
-
-            .choice()
-                .when(header(MessageForwardingPolicy.FORWARD_MESSAGE).isEqualTo(false))
-                    .to("direct:filterMessage-" + identifier.getComponentPath())
-                .otherwise()
-                    .bean(messageProcessor, "recordOutboundProcessingCompleteEvent(*)")
-                .end();
+            // Parts are read from the splitter a chunk at a time so a large message is never held in memory as an array of parts.  Each chunk is stored, filtered
+            // and has its outbound processing complete events recorded together.  The parts are counted as they are processed and the count stored once the last
+            // chunk is done.
+            .process(chunkProcessor::startSplit)
+            .split().method(getSplitter(), "streamChunks(*," + chunkSize + ")").streaming()
+                .setHeader("contentType", constant(getContentType()))
+                .process(chunkProcessor)
+            .end()
+            .process(chunkProcessor::completeSplit);
     }
 }
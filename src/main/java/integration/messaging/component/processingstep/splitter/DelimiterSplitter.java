@@ -0,0 +1,34 @@
+package integration.messaging.component.processingstep.splitter;
+
+import java.util.Iterator;
+import java.util.regex.Pattern;
+
+import org.apache.camel.Exchange;
+
+import integration.messaging.content.MessageContent;
+
+/**
+ * A splitter which splits a message into the parts separated by a delimiter,
+ * eg. the lines of a file. The parts are read one at a time as they are
+ * processed so the message is never held in memory as an array of parts.
+ * 
+ * @author Brendan Douglas
+ *
+ */
+public class DelimiterSplitter extends MessageSplitter {
+    private final Pattern delimiter;
+
+    public DelimiterSplitter(String delimiterRegex) {
+        this.delimiter = Pattern.compile(delimiterRegex);
+    }
+
+    @Override
+    public Iterator<MessageContent> streamMessage(Exchange exchange, MessageContent messageBody) throws SplitterException {
+        return scan(messageBody, delimiter);
+    }
+
+    @Override
+    public String[] splitMessage(Exchange exchange, String messageBody) throws SplitterException {
+        return delimiter.split(messageBody);
+    }
+}
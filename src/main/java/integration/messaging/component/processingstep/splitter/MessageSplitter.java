@@ -1,19 +1,129 @@
 package integration.messaging.component.processingstep.splitter;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.regex.Pattern;
+
 import org.apache.camel.Exchange;
 
+import integration.messaging.content.MessageContent;
+
 /**
  * Interface for all splitters. A splitter will duplicate a mesage. Each message
  * will be returned as part of the array.
  * 
+ * A splitter implements the text version of splitMessage. The MessageContent
+ * version decodes the content and calls the text version, and can be overridden
+ * by a splitter which can split the content without decoding it.
+ * 
+ * A splitter for very large messages should override streamMessage instead so
+ * parts are created one at a time as they are processed rather than all being
+ * held in memory at once, eg. DelimiterSplitter. The splitter route counts the
+ * parts as they are processed and stores the splitCount header of the message
+ * which was split once the last part has been processed.
+ * 
  * @author Brendan Douglas
  *
  */
 public abstract class MessageSplitter {
 
     public String[] split(Exchange exchange, String messageBody) throws SplitterException {
+        MessageContent[] splitMessages = split(exchange, MessageContent.of(messageBody));
+
+        String[] splitText = new String[splitMessages.length];
+
+        for (int i = 0; i < splitMessages.length; i++) {
+            splitText[i] = splitMessages[i].asString();
+        }
+
+        return splitText;
+    }
+
+    /**
+     * Splits the exchange body without first converting it to text.
+     * 
+     * @param exchange
+     * @return
+     * @throws SplitterException
+     */
+    public MessageContent[] splitContent(Exchange exchange) throws SplitterException {
+        return split(exchange, MessageContent.from(exchange));
+    }
+
+    /**
+     * Splits the exchange body into parts which are read one at a time. Used by
+     * the splitter route.
+     * 
+     * @param exchange
+     * @return
+     * @throws SplitterException
+     */
+    public Iterator<MessageContent> streamContent(Exchange exchange) throws SplitterException {
         try {
-            String[] splitMessages = splitMessage(exchange, messageBody);
+            return streamMessage(exchange, MessageContent.from(exchange));
+        } catch (SplitterException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SplitterException("Error splitting the message", e);
+        }
+    }
+
+    /**
+     * Splits the exchange body into chunks of parts which are read one chunk at a
+     * time. Used by the splitter route so the parts in a chunk can be stored
+     * together. The returned iterator is Closeable and closes the parts iterator if
+     * it is Closeable.
+     * 
+     * @param exchange
+     * @param chunkSize
+     * @return
+     * @throws SplitterException
+     */
+    public Iterator<List<MessageContent>> streamChunks(Exchange exchange, int chunkSize) throws SplitterException {
+        return new ChunkIterator(streamContent(exchange), chunkSize);
+    }
+
+    /**
+     * Returns the parts of a message as they are read. Defaults to the
+     * splitMessage array.
+     * 
+     * @param exchange
+     * @param messageBody
+     * @return
+     * @throws SplitterException
+     */
+    public Iterator<MessageContent> streamMessage(Exchange exchange, MessageContent messageBody) throws SplitterException {
+        return Arrays.asList(splitMessage(exchange, messageBody)).iterator();
+    }
+
+    /**
+     * Returns the parts of the content separated by the delimiter as they are
+     * read. Text content is scanned as it is. Other content is scanned as a stream
+     * in its charset without first being converted to text. The scanner is closed
+     * once the last part has been read, or when the returned iterator is closed.
+     * 
+     * @param content
+     * @param delimiter
+     * @return
+     */
+    protected static Iterator<MessageContent> scan(MessageContent content, Pattern delimiter) {
+        Reader reader = content.isText() ? new StringReader(content.asString()) : new InputStreamReader(content.openStream(), content.getCharset());
+
+        return new ScanIterator(new Scanner(reader).useDelimiter(delimiter));
+    }
+
+    private MessageContent[] split(Exchange exchange, MessageContent messageBody) throws SplitterException {
+        try {
+            MessageContent[] splitMessages = splitMessage(exchange, messageBody);
             exchange.getMessage().setHeader("splitCount", splitMessages.length);
 
             return splitMessages;
@@ -22,5 +132,102 @@ public abstract class MessageSplitter {
         }
     }
 
+    public MessageContent[] splitMessage(Exchange exchange, MessageContent messageBody) throws SplitterException {
+        String[] splitMessages = splitMessage(exchange, messageBody.asString());
+
+        MessageContent[] splitContent = new MessageContent[splitMessages.length];
+
+        for (int i = 0; i < splitMessages.length; i++) {
+            splitContent[i] = MessageContent.of(splitMessages[i]);
+        }
+
+        return splitContent;
+    }
+
     public abstract String[] splitMessage(Exchange exchange, String messageBody) throws SplitterException;
+
+    /**
+     * Reads the parts of a message a chunk at a time.
+     */
+    private static class ChunkIterator implements Iterator<List<MessageContent>>, Closeable {
+        private final Iterator<MessageContent> parts;
+        private final int chunkSize;
+
+        private ChunkIterator(Iterator<MessageContent> parts, int chunkSize) {
+            this.parts = parts;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return parts.hasNext();
+        }
+
+        @Override
+        public List<MessageContent> next() {
+            if (!parts.hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            List<MessageContent> chunk = new ArrayList<>(chunkSize);
+
+            while (chunk.size() < chunkSize && parts.hasNext()) {
+                chunk.add(parts.next());
+            }
+
+            return chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (parts instanceof Closeable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the parts of a message from a scanner, closing it once the last part
+     * has been read.
+     */
+    private static class ScanIterator implements Iterator<MessageContent>, Closeable {
+        private final Scanner scanner;
+
+        private boolean closed;
+
+        private ScanIterator(Scanner scanner) {
+            this.scanner = scanner;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (closed) {
+                return false;
+            }
+
+            if (!scanner.hasNext()) {
+                close();
+                return false;
+            }
+
+            return true;
+        }
+
+        @Override
+        public MessageContent next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return MessageContent.of(scanner.next());
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                scanner.close();
+            }
+        }
+    }
 }
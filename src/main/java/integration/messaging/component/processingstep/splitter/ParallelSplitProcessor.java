@@ -0,0 +1,217 @@
+package integration.messaging.component.processingstep.splitter;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+
+import integration.core.domain.configuration.DirectionEnum;
+import integration.core.domain.messaging.MessageFlowTypeEvent;
+import integration.core.dto.MessageFlowStepDto;
+import integration.messaging.MessageProcessor;
+import integration.messaging.component.processingstep.filter.MessageForwardingPolicy;
+import integration.messaging.content.MessageContent;
+import integration.messaging.service.MessagingFlowService;
+
+/**
+ * Splits a message and stores the chunks of parts in parallel on the split
+ * worker pool.
+ *
+ * A worker encodes the parts of a chunk as text, applies the forwarding policy
+ * to them and stores them. Each chunk is stored in its own transaction, started
+ * by the messaging flow service as the worker thread has none. The filtered
+ * parts are then sent to the filter route and the outbox events recorded for
+ * the forwarded parts on the calling thread, in the calling transaction. If the
+ * calling transaction rolls back the stored parts are left without events so
+ * they are never forwarded, and the message is split again when it is
+ * redelivered.
+ *
+ * When order is preserved chunks are completed in the order the parts were
+ * split, otherwise in the order the workers finish them. Only a limited number
+ * of chunks are in progress at once so a large message is still read from the
+ * splitter as it is processed.
+ *
+ * @author Brendan Douglas
+ */
+public class ParallelSplitProcessor extends SplitChunkProcessor {
+    private final MessageSplitter splitter;
+
+    private final SplitWorkerPool workerPool;
+
+    private final String contentType;
+
+    private final int chunkSize;
+
+    private final boolean preserveOrder;
+
+    public ParallelSplitProcessor(MessageSplitter splitter, MessagingFlowService messagingFlowService, MessageForwardingPolicy forwardingPolicy,
+            ProducerTemplate producerTemplate, SplitWorkerPool workerPool, long componentRouteId, String filterEndpointUri, String contentType, int chunkSize,
+            boolean preserveOrder) {
+        super(messagingFlowService, forwardingPolicy, producerTemplate, componentRouteId, filterEndpointUri);
+
+        this.splitter = splitter;
+        this.workerPool = workerPool;
+        this.contentType = contentType;
+        this.chunkSize = chunkSize;
+        this.preserveOrder = preserveOrder;
+    }
+
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        exchange.getMessage().setHeader("contentType", contentType);
+
+        CompletionService<PreparedChunk> completionService = new ExecutorCompletionService<>(workerPool.getExecutor());
+        Deque<Future<PreparedChunk>> inProgress = new ArrayDeque<>();
+
+        int maxInProgress = workerPool.getThreads() * 2;
+        int splitCount = 0;
+
+        Long fromMessageFlowStepId = exchange.getMessage().getHeader(MessageProcessor.FROM_MESSAGE_FLOW_STEP_ID, Long.class);
+        Map<String, Object> headers = exchange.getMessage().getHeaders();
+
+        Iterator<List<MessageContent>> chunks = splitter.streamChunks(exchange, chunkSize);
+
+        try {
+            while (chunks.hasNext()) {
+                List<MessageContent> chunk = chunks.next();
+                splitCount = splitCount + chunk.size();
+
+                // The headers are merged into when the parts are stored so each worker has its own copy.
+                Map<String, Object> chunkHeaders = new HashMap<>(headers);
+
+                if (preserveOrder) {
+                    inProgress.add(workerPool.getExecutor().submit(() -> prepareChunk(chunk, chunkHeaders, fromMessageFlowStepId)));
+                } else {
+                    inProgress.add(completionService.submit(() -> prepareChunk(chunk, chunkHeaders, fromMessageFlowStepId)));
+                }
+
+                if (inProgress.size() >= maxInProgress) {
+                    complete(exchange, takeNext(inProgress, completionService));
+                }
+            }
+
+            while (!inProgress.isEmpty()) {
+                complete(exchange, takeNext(inProgress, completionService));
+            }
+        } finally {
+            for (Future<PreparedChunk> future : inProgress) {
+                future.cancel(true);
+            }
+
+            if (chunks instanceof Closeable closeable) {
+                closeable.close();
+            }
+        }
+
+        recordSplitCount(exchange, splitCount);
+    }
+
+    /**
+     * Waits for the next chunk. The oldest chunk when order is preserved,
+     * otherwise the first to finish.
+     *
+     * @param inProgress
+     * @param completionService
+     * @return
+     * @throws Exception
+     */
+    private PreparedChunk takeNext(Deque<Future<PreparedChunk>> inProgress, CompletionService<PreparedChunk> completionService) throws Exception {
+        Future<PreparedChunk> future = null;
+
+        if (preserveOrder) {
+            future = inProgress.removeFirst();
+        } else {
+            future = completionService.take();
+            inProgress.remove(future);
+        }
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Encodes the parts in a chunk as text, applies the forwarding policy to them
+     * and stores them. Runs on a worker thread so the parts are stored in their own
+     * transaction.
+     *
+     * @param chunk
+     * @param headers
+     * @param fromMessageFlowStepId
+     * @return
+     * @throws Exception
+     */
+    private PreparedChunk prepareChunk(List<MessageContent> chunk, Map<String, Object> headers, Long fromMessageFlowStepId) throws Exception {
+        PreparedChunk prepared = new PreparedChunk(chunk);
+
+        List<String> messageContents = new ArrayList<>(chunk.size());
+
+        for (int i = 0; i < chunk.size(); i++) {
+            messageContents.add(chunk.get(i).asString());
+            prepared.forward[i] = applyPolicy(chunk.get(i));
+        }
+
+        prepared.messageFlowSteps = messagingFlowService.recordMessageFlows(componentRouteId, messageContents, headers, fromMessageFlowStepId, contentType,
+                DirectionEnum.OUTBOUND);
+
+        return prepared;
+    }
+
+    /**
+     * Filters the parts of a stored chunk which are not forwarded and records the
+     * events for the rest. Runs on the calling thread within the calling
+     * transaction.
+     *
+     * @param exchange
+     * @param prepared
+     * @throws Exception
+     */
+    private void complete(Exchange exchange, PreparedChunk prepared) throws Exception {
+        List<Long> forwarded = new ArrayList<>(prepared.parts.size());
+
+        for (int i = 0; i < prepared.parts.size(); i++) {
+            long messageFlowStepId = prepared.messageFlowSteps.get(i).getId();
+
+            if (prepared.forward[i]) {
+                forwarded.add(messageFlowStepId);
+            } else {
+                filter(exchange, messageFlowStepId, prepared.parts.get(i));
+            }
+        }
+
+        messagingFlowService.recordMessageFlowEvents(forwarded, MessageFlowTypeEvent.COMPONENT_OUTBOUND_PROCESSING_COMPLETE);
+    }
+
+    /**
+     * The parts of a chunk in split order with their forwarding decisions and
+     * stored message flow steps.
+     */
+    private static class PreparedChunk {
+        private final List<MessageContent> parts;
+        private final boolean[] forward;
+
+        private List<MessageFlowStepDto> messageFlowSteps;
+
+        private PreparedChunk(List<MessageContent> parts) {
+            this.parts = parts;
+            this.forward = new boolean[parts.size()];
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package integration.messaging.component.processingstep.splitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+
+import integration.core.domain.configuration.DirectionEnum;
+import integration.core.domain.messaging.MessageFlowTypeEvent;
+import integration.core.dto.MessageFlowStepDto;
+import integration.messaging.MessageProcessor;
+import integration.messaging.component.processingstep.filter.FilterException;
+import integration.messaging.component.processingstep.filter.MessageFlowPolicy;
+import integration.messaging.component.processingstep.filter.MessageForwardingPolicy;
+import integration.messaging.content.MessageContent;
+import integration.messaging.service.MessagingFlowService;
+
+/**
+ * Stores a chunk of split message parts, applies the forwarding policy to each
+ * part and records the outbound processing complete events for the parts which
+ * are forwarded.
+ *
+ * The parts in a chunk are siblings so they are stored with a single call to
+ * the bulk messaging flow service methods rather than a store and an event per
+ * part. Parts which are not forwarded are sent to the components filter route.
+ *
+ * The parts are counted as they are processed. The count is held by an exchange
+ * property set on the exchange being split, which every chunk exchange shares,
+ * and is stored as the splitCount header of the message flow step which was
+ * split once splitting has finished.
+ *
+ * @author Brendan Douglas
+ */
+public class SplitChunkProcessor implements Processor {
+    public static final String SPLIT_COUNTER = "splitCounter";
+
+    protected final MessagingFlowService messagingFlowService;
+
+    protected final MessageForwardingPolicy forwardingPolicy;
+
+    protected final ProducerTemplate producerTemplate;
+
+    protected final long componentRouteId;
+
+    protected final String filterEndpointUri;
+
+    public SplitChunkProcessor(MessagingFlowService messagingFlowService, MessageForwardingPolicy forwardingPolicy, ProducerTemplate producerTemplate,
+            long componentRouteId, String filterEndpointUri) {
+        this.messagingFlowService = messagingFlowService;
+        this.forwardingPolicy = forwardingPolicy;
+        this.producerTemplate = producerTemplate;
+        this.componentRouteId = componentRouteId;
+        this.filterEndpointUri = filterEndpointUri;
+    }
+
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        @SuppressWarnings("unchecked")
+        List<MessageContent> parts = exchange.getMessage().getMandatoryBody(List.class);
+
+        Long fromMessageFlowStepId = exchange.getMessage().getHeader(MessageProcessor.FROM_MESSAGE_FLOW_STEP_ID, Long.class);
+        String contentType = exchange.getMessage().getHeader("contentType", String.class);
+
+        List<String> messageContents = new ArrayList<>(parts.size());
+
+        for (MessageContent part : parts) {
+            messageContents.add(part.asString());
+        }
+
+        List<MessageFlowStepDto> messageFlowSteps = messagingFlowService.recordMessageFlows(componentRouteId, messageContents,
+                exchange.getMessage().getHeaders(), fromMessageFlowStepId, contentType, DirectionEnum.OUTBOUND);
+
+        AtomicInteger splitCounter = exchange.getProperty(SPLIT_COUNTER, AtomicInteger.class);
+
+        if (splitCounter != null) {
+            splitCounter.addAndGet(parts.size());
+        }
+
+        List<Long> forwarded = new ArrayList<>(parts.size());
+
+        for (int i = 0; i < parts.size(); i++) {
+            long messageFlowStepId = messageFlowSteps.get(i).getId();
+
+            if (applyPolicy(parts.get(i))) {
+                forwarded.add(messageFlowStepId);
+            } else {
+                filter(exchange, messageFlowStepId, parts.get(i));
+            }
+        }
+
+        messagingFlowService.recordMessageFlowEvents(forwarded, MessageFlowTypeEvent.COMPONENT_OUTBOUND_PROCESSING_COMPLETE);
+    }
+
+    /**
+     * Starts counting the parts of the exchange about to be split.
+     *
+     * @param exchange
+     */
+    public void startSplit(Exchange exchange) {
+        exchange.setProperty(SPLIT_COUNTER, new AtomicInteger());
+    }
+
+    /**
+     * Stores the number of parts once the exchange has been split.
+     *
+     * @param exchange
+     */
+    public void completeSplit(Exchange exchange) {
+        AtomicInteger splitCounter = exchange.removeProperty(SPLIT_COUNTER) instanceof AtomicInteger counter ? counter : null;
+
+        recordSplitCount(exchange, splitCounter != null ? splitCounter.get() : 0);
+    }
+
+    /**
+     * Stores the number of parts as the splitCount header of the message flow step
+     * which was split.
+     *
+     * @param exchange
+     * @param splitCount
+     */
+    protected void recordSplitCount(Exchange exchange, int splitCount) {
+        Long fromMessageFlowStepId = exchange.getMessage().getHeader(MessageProcessor.FROM_MESSAGE_FLOW_STEP_ID, Long.class);
+
+        if (fromMessageFlowStepId != null) {
+            messagingFlowService.recordSplitCount(fromMessageFlowStepId, splitCount);
+        }
+    }
+
+    /**
+     * Applies the forwarding policy to a part. Errors are wrapped in a
+     * FilterException as they are when the policy is applied to a single message.
+     *
+     * @param part
+     * @return
+     * @throws FilterException
+     */
+    protected boolean applyPolicy(MessageContent part) throws FilterException {
+        try {
+            return forwardingPolicy.applyPolicy(part);
+        } catch (Exception e) {
+            throw new FilterException("Error filtering the message", e);
+        }
+    }
+
+    /**
+     * Sends a part which is not forwarded to the filter route with the same
+     * headers and exchange properties it would have had if it had been filtered on
+     * its own.
+     *
+     * @param exchange
+     * @param messageFlowStepId
+     * @param part
+     */
+    protected void filter(Exchange exchange, long messageFlowStepId, MessageContent part) throws Exception {
+        Exchange filterExchange = exchange.copy();
+
+        filterExchange.getMessage().setHeader(MessageProcessor.MESSAGE_FLOW_STEP_ID, messageFlowStepId);
+        filterExchange.getMessage().setHeader(MessageForwardingPolicy.FORWARD_MESSAGE, false);
+        filterExchange.getMessage().setHeader(MessageFlowPolicy.REASON, forwardingPolicy.getFilterReason());
+        filterExchange.getMessage().setHeader(MessageFlowPolicy.FILTER_NAME, forwardingPolicy.getName());
+        filterExchange.getMessage().setBody(part);
+
+        Exchange result = producerTemplate.send(filterEndpointUri, filterExchange);
+
+        if (result.getException() != null) {
+            throw result.getException();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package integration.messaging.component.processingstep.splitter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * The bounded pool shared by all splitters on this node which process split
+ * parts in parallel. Defaults to one thread per available processor.
+ *
+ * Each thread stores parts in its own transaction while the thread which split
+ * the message holds its own connection, so the database connection pool needs
+ * a connection for every worker thread on top of those used by the consumers.
+ *
+ * @author Brendan Douglas
+ */
+@Component
+public class SplitWorkerPool {
+    private final int threads;
+
+    private final ExecutorService executor;
+
+    public SplitWorkerPool(@Value("${integration.messaging.splitter.workerThreads:0}") int threads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.executor = Executors.newFixedThreadPool(this.threads, new CustomizableThreadFactory("split-worker-"));
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -26,12 +26,12 @@ public abstract class BaseTransformationProcessingStep extends ProcessingStep {
 
 
         from("direct:process-" + identifier.getComponentPath()).routeId("process-" + identifier.getComponentPath())
-            .routeGroup(identifier.getComponentPath()).bean(getTransformer(), "transform")
+            .routeGroup(identifier.getComponentPath()).bean(getTransformer(), "transformContent")
             .setHeader("contentType", constant(getContentType()))
             .bean(messageProcessor, "storeOutboundMessageFlowStep(*," + identifier.getComponentRouteId() + ")")
 
             // Outbound message filter.
-            .bean(getMessageForwardingPolicy(), "applyPolicy")
+            .bean(getMessageForwardingPolicy(), "applyPolicyToContent")
 
             .choice()
                 .when(header(MessageForwardingPolicy.FORWARD_MESSAGE).isEqualTo(false))
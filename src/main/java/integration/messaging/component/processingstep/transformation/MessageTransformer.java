@@ -2,9 +2,17 @@ package integration.messaging.component.processingstep.transformation;
 
 import org.apache.camel.Exchange;
 
+import integration.messaging.content.MessageContent;
+
 /**
  * Interface for all transformers.
  * 
+ * Every transformer implements the text version of transformMessage. The
+ * MessageContent version defaults to decoding the content and calling the text
+ * version. A transformer which works with bytes overrides the MessageContent
+ * version and implements the text version by wrapping the text and calling it,
+ * so it never needs the content as text.
+ * 
  * @author Brendan Douglas
  *
  */
@@ -12,11 +20,30 @@ public abstract class MessageTransformer {
 
     public String transform(Exchange exchange, String messageBody) throws TransformationException {
         try {
-            return transformMessage(exchange, messageBody);
+            return transformMessage(exchange, MessageContent.of(messageBody)).asString();
+        } catch (Exception e) {
+            throw new TransformationException("Error transforming the message", e);
+        }
+    }
+
+    /**
+     * Transforms the exchange body without first converting it to text.
+     * 
+     * @param exchange
+     * @return
+     * @throws TransformationException
+     */
+    public MessageContent transformContent(Exchange exchange) throws TransformationException {
+        try {
+            return transformMessage(exchange, MessageContent.from(exchange));
         } catch (Exception e) {
             throw new TransformationException("Error transforming the message", e);
         }
     }
 
+    public MessageContent transformMessage(Exchange exchange, MessageContent messageBody) throws TransformationException, Exception {
+        return MessageContent.of(transformMessage(exchange, messageBody.asString()));
+    }
+
     public abstract String transformMessage(Exchange exchange, String messageBody) throws TransformationException, Exception;
 }
@@ -0,0 +1,291 @@
+package integration.messaging.consumer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Consumer;
+import org.apache.camel.Exchange;
+import org.apache.camel.NamedNode;
+import org.apache.camel.Route;
+import org.apache.camel.component.jms.JmsConsumer;
+import org.apache.camel.spi.RoutePolicy;
+import org.apache.camel.spi.RoutePolicyFactory;
+import org.apache.camel.support.RoutePolicySupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jms.listener.AbstractMessageListenerContainer;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import integration.messaging.ConcurrencyLimiter;
+import integration.messaging.outbox.QueueDepthMonitor;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Scales the number of concurrent consumers of each registered JMS consumer
+ * route between its minimum and maximum.
+ *
+ * At each interval the depth of the queue the route consumes from and the
+ * average time the route took to process a message since the last interval
+ * are used to estimate how long the backlog will take to drain. The consumers
+ * are increased straight away when the backlog per consumer is above the
+ * target or the estimated drain time is above the target, and are reduced by
+ * one per interval once the queue is empty so a burst does not cause the count
+ * to flap.
+ *
+ * Every consumer is reserved against the node concurrency limit. A route
+ * scales up only as far as the limit allows, and a route registered when the
+ * limit has been reached is shrunk to the consumers which could be reserved,
+ * keeping the single consumer a listener container needs.
+ *
+ * The processing time is recorded by a route policy which is only added to the
+ * registered routes, so other routes are not affected.
+ *
+ * A route only scales when its maximum is greater than its minimum. The
+ * current number of consumers is published as the integration.jms.consumers
+ * gauge for each route.
+ *
+ * @author Brendan Douglas
+ */
+@Component
+public class JmsConsumerAutoscaler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JmsConsumerAutoscaler.class);
+
+    private final Map<String, ScaledConsumer> consumers = new ConcurrentHashMap<>();
+
+    // The gauge value for each route.  A gauge is bound to the holder it was first registered with so the holder is kept if a route is registered again.
+    private final Map<String, AtomicInteger> currentConsumers = new ConcurrentHashMap<>();
+
+    private final CamelContext camelContext;
+
+    private final QueueDepthMonitor queueDepthMonitor;
+
+    private final ConcurrencyLimiter concurrencyLimiter;
+
+    private final MeterRegistry meterRegistry;
+
+    private final long interval;
+
+    private final int targetBacklogPerConsumer;
+
+    private final long targetDrainTime;
+
+    private final ScheduledExecutorService scaler;
+
+    public JmsConsumerAutoscaler(@Value("${integration.messaging.consumers.scaleInterval:5000}") long interval,
+            @Value("${integration.messaging.consumers.targetBacklogPerConsumer:10}") int targetBacklogPerConsumer,
+            @Value("${integration.messaging.consumers.targetDrainTime:2000}") long targetDrainTime, CamelContext camelContext,
+            QueueDepthMonitor queueDepthMonitor, ConcurrencyLimiter concurrencyLimiter, ObjectProvider<MeterRegistry> meterRegistry) {
+        this.interval = interval;
+        this.targetBacklogPerConsumer = Math.max(1, targetBacklogPerConsumer);
+        this.targetDrainTime = targetDrainTime;
+        this.camelContext = camelContext;
+        this.queueDepthMonitor = queueDepthMonitor;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.meterRegistry = meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+        this.scaler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("jms-consumer-scaler-"));
+    }
+
+    @PostConstruct
+    public void start() {
+        camelContext.addRoutePolicyFactory(new ProcessingTimePolicyFactory());
+
+        scaler.scheduleWithFixedDelay(this::scaleAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scaler.shutdownNow();
+    }
+
+    /**
+     * Registers a JMS consumer route. Must be called before the route is created
+     * so the processing time policy is added to it.
+     *
+     * @param routeId
+     * @param queueName    the queue the route consumes from.
+     * @param componentPath
+     * @param minConsumers
+     * @param maxConsumers
+     */
+    public void register(String routeId, String queueName, String componentPath, int minConsumers, int maxConsumers) {
+        AtomicInteger current = currentConsumers.computeIfAbsent(routeId, id -> {
+            AtomicInteger holder = new AtomicInteger();
+
+            Gauge.builder("integration.jms.consumers", holder, AtomicInteger::get)
+                .description("Concurrent consumers of a JMS consumer route")
+                .tag("component", componentPath)
+                .tag("route", routeId)
+                .register(meterRegistry);
+
+            return holder;
+        });
+
+        ScaledConsumer previous = consumers.put(routeId, new ScaledConsumer(routeId, queueName, minConsumers, Math.max(minConsumers, maxConsumers), current));
+
+        if (previous != null) {
+            concurrencyLimiter.release(current.get());
+        }
+
+        int reserved = concurrencyLimiter.reserve(minConsumers);
+
+        if (reserved < minConsumers) {
+            LOGGER.warn("Route " + routeId + " is limited to " + reserved + " of its " + minConsumers + " consumers by the node concurrency limit");
+        }
+
+        current.set(reserved);
+    }
+
+    private void scaleAll() {
+        for (ScaledConsumer consumer : consumers.values()) {
+            try {
+                scale(consumer);
+            } catch (Exception e) {
+                LOGGER.warn("Unable to scale the consumers of route " + consumer.routeId, e);
+            }
+        }
+    }
+
+    private void scale(ScaledConsumer consumer) throws Exception {
+        // A route which is not scaled is still brought up to its minimum if it could not be reserved when registered.
+        if (consumer.max <= consumer.min && consumer.current.get() >= consumer.min) {
+            return;
+        }
+
+        DefaultMessageListenerContainer container = getListenerContainer(consumer.routeId);
+
+        // Not started or not a JMS route.
+        if (container == null) {
+            return;
+        }
+
+        long processed = consumer.processed.sumThenReset();
+        long processingTime = consumer.processingTime.sumThenReset();
+
+        // The reserved count rather than the containers so reservations are always released.
+        int current = consumer.current.get();
+        int depth = queueDepthMonitor.getDepth(consumer.queueName);
+
+        int desired = (depth + targetBacklogPerConsumer - 1) / targetBacklogPerConsumer;
+
+        if (current == 0 && depth > 0) {
+            // No consumers to drain the queue so any backlog needs one.
+            desired = Math.max(desired, 1);
+        } else if (processed > 0 && depth > 0) {
+            long averageProcessingTime = processingTime / processed;
+            long drainTime = depth * averageProcessingTime / current;
+
+            if (drainTime > targetDrainTime) {
+                desired = Math.max(desired, current + 1);
+            }
+        }
+
+        desired = Math.max(consumer.min, Math.min(consumer.max, desired));
+
+        // Scale up straight away, as far as the node concurrency limit allows, but only down once the queue is empty and then one consumer at a time.
+        if (desired > current) {
+            desired = current + concurrencyLimiter.reserve(desired - current);
+        } else if (desired < current) {
+            desired = depth == 0 ? current - 1 : current;
+
+            concurrencyLimiter.release(current - desired);
+        }
+
+        // A container always needs one consumer even when none could be reserved. It waits for a permit like any other.
+        int containerConsumers = Math.max(1, desired);
+
+        if (containerConsumers != container.getConcurrentConsumers()) {
+            // Setting the concurrent consumers first raises the maximum if needed, then the maximum is brought into line.
+            container.setConcurrentConsumers(containerConsumers);
+            container.setMaxConcurrentConsumers(containerConsumers);
+        }
+
+        consumer.current.set(desired);
+    }
+
+    private DefaultMessageListenerContainer getListenerContainer(String routeId) throws Exception {
+        Route route = camelContext.getRoute(routeId);
+
+        if (route == null) {
+            return null;
+        }
+
+        Consumer consumer = route.getConsumer();
+
+        if (consumer instanceof JmsConsumer jmsConsumer) {
+            AbstractMessageListenerContainer container = jmsConsumer.getListenerContainer();
+
+            if (container instanceof DefaultMessageListenerContainer defaultContainer && defaultContainer.isRunning()) {
+                return defaultContainer;
+            }
+        }
+
+        return null;
+    }
+
+    private static class ScaledConsumer {
+        private final String routeId;
+        private final String queueName;
+        private final int min;
+        private final int max;
+
+        private final AtomicInteger current;
+
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder processingTime = new LongAdder();
+
+        private ScaledConsumer(String routeId, String queueName, int min, int max, AtomicInteger current) {
+            this.routeId = routeId;
+            this.queueName = queueName;
+            this.min = min;
+            this.max = max;
+            this.current = current;
+        }
+    }
+
+    /**
+     * Adds the processing time policy to the registered routes as they are
+     * created.
+     */
+    private class ProcessingTimePolicyFactory implements RoutePolicyFactory {
+
+        @Override
+        public RoutePolicy createRoutePolicy(CamelContext camelContext, String routeId, NamedNode route) {
+            return consumers.containsKey(routeId) ? new ProcessingTimePolicy(routeId) : null;
+        }
+    }
+
+    /**
+     * Records the processing time of each exchange completed by a route.
+     */
+    private class ProcessingTimePolicy extends RoutePolicySupport {
+        private final String routeId;
+
+        private ProcessingTimePolicy(String routeId) {
+            this.routeId = routeId;
+        }
+
+        @Override
+        public void onExchangeDone(Route route, Exchange exchange) {
+            ScaledConsumer consumer = consumers.get(routeId);
+
+            if (consumer != null) {
+                consumer.processed.increment();
+                consumer.processingTime.add(System.currentTimeMillis() - exchange.getCreated());
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package integration.messaging.content;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores headers in a compact binary form, Base64 encoded behind a marker as
+ * headers are stored as text.
+ *
+ * The format is a version byte and the number of headers followed by each
+ * header. A key is either the position of a well known key in the dictionary or
+ * the key itself. A value is a type tag followed by the value, with strings
+ * length prefixed. Only null, String, Long, Integer, Boolean and Double values
+ * can be encoded. Headers with a value of any other type are rejected, so the
+ * caller can store them as JSON instead without losing their type.
+ *
+ * Keys can only ever be added to the end of the dictionary as stored headers
+ * refer to keys by position.
+ *
+ * @author Brendan Douglas
+ */
+public class BinaryHeaderCodec implements MessageHeaderCodec {
+    private static final String MARKER = "\u0001bin:";
+
+    private static final int VERSION = 1;
+
+    // Literal values rather than the header constants so renaming a constant can't change the meaning of stored headers.
+    private static final List<String> DICTIONARY = List.of("contentType", "messageFlowStepId", "fromMessageFlowStepId", "inlineContent", "splitCount",
+            "ACCEPT_MESSAGE", "FORWARD_MESSAGE", "REJECT_MESSAGE", "FILTER_NAME", "REASON", "ERROR_MESSAGE", "$headerDelta");
+
+    private static final Map<String, Integer> DICTIONARY_INDEX = new HashMap<>();
+
+    static {
+        for (int i = 0; i < DICTIONARY.size(); i++) {
+            DICTIONARY_INDEX.put(DICTIONARY.get(i), i + 1);
+        }
+    }
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int LONG = 2;
+    private static final int INTEGER = 3;
+    private static final int BOOLEAN = 4;
+    private static final int DOUBLE = 5;
+
+    /**
+     * Returns true if every header value is of a type this codec can encode.
+     *
+     * @param headers
+     * @return
+     */
+    public boolean canEncode(Map<String, Object> headers) {
+        for (Object value : headers.values()) {
+            if (value != null && !(value instanceof String || value instanceof Long || value instanceof Integer || value instanceof Boolean
+                    || value instanceof Double)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean isEncodedBy(String stored) {
+        return stored != null && stored.startsWith(MARKER);
+    }
+
+    @Override
+    public String encode(Map<String, Object> headers) {
+        if (headers == null) {
+            return null;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(headers.size() * 16);
+            DataOutputStream output = new DataOutputStream(bytes);
+
+            output.writeByte(VERSION);
+            writeLength(output, headers.size());
+
+            for (Map.Entry<String, Object> header : headers.entrySet()) {
+                Integer index = DICTIONARY_INDEX.get(header.getKey());
+
+                if (index != null) {
+                    writeLength(output, index);
+                } else {
+                    writeLength(output, 0);
+                    writeString(output, header.getKey());
+                }
+
+                writeValue(output, header.getValue());
+            }
+
+            output.flush();
+
+            return MARKER + Base64.getEncoder().encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Map<String, Object> decode(String stored) {
+        if (stored == null) {
+            return null;
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(stored.substring(MARKER.length()))));
+
+            int version = input.readUnsignedByte();
+
+            if (version != VERSION) {
+                throw new IllegalStateException("Unsupported binary header version: " + version);
+            }
+
+            int count = readLength(input);
+
+            Map<String, Object> headers = new LinkedHashMap<>();
+
+            for (int i = 0; i < count; i++) {
+                int index = readLength(input);
+
+                String key = index == 0 ? readString(input) : DICTIONARY.get(index - 1);
+
+                headers.put(key, readValue(input));
+            }
+
+            return headers;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeValue(DataOutputStream output, Object value) throws IOException {
+        if (value == null) {
+            output.writeByte(NULL);
+        } else if (value instanceof Long longValue) {
+            output.writeByte(LONG);
+            output.writeLong(longValue);
+        } else if (value instanceof Integer integerValue) {
+            output.writeByte(INTEGER);
+            output.writeInt(integerValue);
+        } else if (value instanceof Boolean booleanValue) {
+            output.writeByte(BOOLEAN);
+            output.writeBoolean(booleanValue);
+        } else if (value instanceof Double doubleValue) {
+            output.writeByte(DOUBLE);
+            output.writeDouble(doubleValue);
+        } else if (value instanceof String stringValue) {
+            output.writeByte(STRING);
+            writeString(output, stringValue);
+        } else {
+            throw new IllegalArgumentException("Headers of type " + value.getClass().getName() + " can't be stored in the binary header encoding");
+        }
+    }
+
+    private Object readValue(DataInputStream input) throws IOException {
+        int type = input.readUnsignedByte();
+
+        switch (type) {
+        case NULL:
+            return null;
+        case STRING:
+            return readString(input);
+        case LONG:
+            return input.readLong();
+        case INTEGER:
+            return input.readInt();
+        case BOOLEAN:
+            return input.readBoolean();
+        case DOUBLE:
+            return input.readDouble();
+        default:
+            throw new IllegalStateException("Unknown binary header value type: " + type);
+        }
+    }
+
+    private void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        writeLength(output, bytes.length);
+        output.write(bytes);
+    }
+
+    private String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[readLength(input)];
+        input.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a non negative int in as few bytes as possible, 7 bits per byte.
+     */
+    private void writeLength(DataOutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value = value >>> 7;
+        }
+
+        output.writeByte(value);
+    }
+
+    private int readLength(DataInputStream input) throws IOException {
+        int value = 0;
+
+        for (int shift = 0; shift < 32; shift = shift + 7) {
+            int b = input.readUnsignedByte();
+            value = value | ((b & 0x7F) << shift);
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IllegalStateException("Invalid binary header length");
+    }
+}
@@ -0,0 +1,37 @@
+package integration.messaging.content;
+
+import java.util.zip.Deflater;
+
+/**
+ * How stored message content is compressed.
+ * 
+ * @author Brendan Douglas
+ */
+public enum ContentCompression {
+
+    /**
+     * Content is stored as is.
+     */
+    NONE(Deflater.NO_COMPRESSION),
+
+    /**
+     * Deflate at the fastest level. Less CPU for a lower compression ratio.
+     */
+    FAST(Deflater.BEST_SPEED),
+
+    /**
+     * Deflate at the best compression level. The smallest stored content for
+     * more CPU.
+     */
+    DENSE(Deflater.BEST_COMPRESSION);
+
+    private final int level;
+
+    ContentCompression(int level) {
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+}
@@ -0,0 +1,375 @@
+package integration.messaging.content;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import integration.core.exception.ConfigurationException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * A claim check store which holds large message content in files rather than
+ * in the message table. Only a reference to the file is stored in the
+ * database.
+ *
+ * Files are content addressed. The name is the SHA-256 of the content so
+ * identical content is only written once and a file never changes once
+ * written. Content is streamed to a temporary file, and digested as it is
+ * written, so large content is never held as a second copy in memory. The
+ * temporary file is flushed to disk and then atomically moved into place, so a
+ * reader never sees a partial file. The directory can be local or on shared
+ * storage used by every node.
+ *
+ * A background job removes files which no message references, eg. because the
+ * transaction which wrote the message rolled back or the message has since been
+ * purged, along with temporary files left by failed writes. Only files older
+ * than the orphan age are removed so a file is never removed while the
+ * transaction which wrote it may still commit. Writing content which is already
+ * stored updates the file time for the same reason.
+ *
+ * @author Brendan Douglas
+ */
+@Component
+public class FileBlobStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileBlobStore.class);
+
+    private static final Pattern ADDRESS = Pattern.compile("[0-9a-f]{64}");
+
+    private static final int CLEANUP_PAGE_SIZE = 1000;
+
+    private final Path directory;
+
+    private final int threshold;
+
+    private final long cleanupInterval;
+
+    private final long orphanAge;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private ScheduledExecutorService cleaner;
+
+    public FileBlobStore(@Value("${integration.messaging.blobStore.directory:}") String directory,
+            @Value("${integration.messaging.blobStore.threshold:1048576}") int threshold,
+            @Value("${integration.messaging.blobStore.cleanupInterval:3600000}") long cleanupInterval,
+            @Value("${integration.messaging.blobStore.orphanAge:86400000}") long orphanAge) {
+        this.directory = directory.isBlank() ? null : Paths.get(directory);
+        this.threshold = threshold;
+        this.cleanupInterval = cleanupInterval;
+        this.orphanAge = orphanAge;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (directory == null) {
+            return;
+        }
+
+        cleaner = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("blob-store-cleanup-"));
+        cleaner.scheduleWithFixedDelay(this::cleanup, cleanupInterval, cleanupInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (cleaner != null) {
+            cleaner.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns true if the content should be stored in this store.
+     *
+     * @param content
+     * @return
+     */
+    public boolean isStoredHere(String content) {
+        return directory != null && content != null && content.length() >= threshold;
+    }
+
+    /**
+     * Writes content to the store and returns its address. The characters are
+     * encoded as they are written.
+     *
+     * @param content
+     * @return
+     */
+    public String write(String content) {
+        return write(outputStream -> {
+            Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+            writer.write(content);
+            writer.flush();
+        });
+    }
+
+    /**
+     * Writes the content read from a stream to the store and returns its address.
+     * The stream is not closed.
+     *
+     * @param inputStream
+     * @return
+     */
+    public String write(InputStream inputStream) {
+        return write(outputStream -> inputStream.transferTo(outputStream));
+    }
+
+    /**
+     * Writes content to a temporary file while digesting it, then moves the file
+     * to its address unless the content is already stored.
+     */
+    private String write(ContentWriter contentWriter) {
+        Path temporaryDirectory = getDirectory();
+        Path temporaryFile = null;
+
+        try {
+            Files.createDirectories(temporaryDirectory);
+
+            temporaryFile = Files.createTempFile(temporaryDirectory, "blob", ".tmp");
+
+            MessageDigest digest = newDigest();
+
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                OutputStream outputStream = new DigestOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)), digest);
+                contentWriter.write(outputStream);
+                outputStream.flush();
+
+                channel.force(true);
+            }
+
+            String address = HexFormat.of().formatHex(digest.digest());
+            Path file = getFile(address);
+
+            if (Files.exists(file)) {
+                // Keeps the file from being removed as an orphan before the new reference to it is committed.
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                return address;
+            }
+
+            Files.createDirectories(file.getParent());
+
+            try {
+                Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE);
+                forceDirectory(file.getParent());
+            } catch (FileAlreadyExistsException e) {
+                // Written by another thread or node.  The content is the same.
+            }
+
+            return address;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write message content to the blob store", e);
+        } finally {
+            deleteTemporaryFile(temporaryFile);
+        }
+    }
+
+    private void deleteTemporaryFile(Path temporaryFile) {
+        if (temporaryFile == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(temporaryFile);
+        } catch (IOException e) {
+            // Left for the operator to remove.  It is never read.
+        }
+    }
+
+    /**
+     * Flushes a directory so a file moved into it survives a crash. Not every
+     * platform allows a directory to be opened so this is best effort.
+     */
+    private void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // The file itself has already been flushed.
+        }
+    }
+
+    /**
+     * Opens a stream over the content with the supplied address.
+     *
+     * @param address
+     * @return
+     */
+    public InputStream open(String address) {
+        try {
+            return Files.newInputStream(getFile(address));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read message content from the blob store. Address: " + address, e);
+        }
+    }
+
+    /**
+     * Reads the content with the supplied address. The bytes are decoded as they
+     * are read so only the characters are held in memory.
+     *
+     * @param address
+     * @return
+     */
+    public String read(String address) {
+        try (Reader reader = new InputStreamReader(open(address), StandardCharsets.UTF_8)) {
+            StringBuilder content = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, Files.size(getFile(address))));
+            char[] buffer = new char[8192];
+            int length = 0;
+
+            while ((length = reader.read(buffer)) != -1) {
+                content.append(buffer, 0, length);
+            }
+
+            return content.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read message content from the blob store. Address: " + address, e);
+        }
+    }
+
+    /**
+     * Removes the files older than the orphan age which no message references, and
+     * any old temporary files. The files are checked a page at a time.
+     */
+    private void cleanup() {
+        try {
+            long cutoff = System.currentTimeMillis() - orphanAge;
+            Path temporaryDirectory = getDirectory();
+
+            List<Path> files = new ArrayList<>(CLEANUP_PAGE_SIZE);
+
+            try (Stream<Path> paths = Files.walk(directory)) {
+                Iterator<Path> iterator = paths.filter(Files::isRegularFile).iterator();
+
+                while (iterator.hasNext()) {
+                    Path file = iterator.next();
+
+                    if (Files.getLastModifiedTime(file).toMillis() >= cutoff) {
+                        continue;
+                    }
+
+                    if (file.getParent().equals(temporaryDirectory)) {
+                        Files.deleteIfExists(file);
+                    } else if (ADDRESS.matcher(file.getFileName().toString()).matches()) {
+                        files.add(file);
+
+                        if (files.size() == CLEANUP_PAGE_SIZE) {
+                            deleteUnreferenced(files);
+                            files.clear();
+                        }
+                    }
+                }
+            }
+
+            deleteUnreferenced(files);
+        } catch (Exception e) {
+            LOGGER.error("Blob store cleanup failed", e);
+        }
+    }
+
+    /**
+     * Deletes the files which are not referenced by a message.
+     *
+     * @param files
+     * @throws IOException
+     */
+    private void deleteUnreferenced(List<Path> files) throws IOException {
+        if (files.isEmpty()) {
+            return;
+        }
+
+        Map<String, Path> references = new HashMap<>();
+
+        for (Path file : files) {
+            references.put(MessageContentCodec.BLOB + file.getFileName().toString(), file);
+        }
+
+        references.keySet().removeAll(entityManager.createQuery("select m.content from Message m where m.content in (:references)", String.class)
+                .setParameter("references", references.keySet())
+                .getResultList());
+
+        for (Path file : references.values()) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Files are spread over subdirectories named after the start of the address so
+     * no single directory gets too large.
+     */
+    private Path getFile(String address) {
+        if (directory == null) {
+            throw new ConfigurationException("Message content is in the blob store but no blob store directory is configured");
+        }
+
+        if (!ADDRESS.matcher(address).matches()) {
+            throw new ConfigurationException("Invalid blob store address: " + address);
+        }
+
+        return directory.resolve(address.substring(0, 2)).resolve(address.substring(2, 4)).resolve(address);
+    }
+
+    /**
+     * The directory temporary files are written to before they are moved to their
+     * address.
+     */
+    private Path getDirectory() {
+        if (directory == null) {
+            throw new ConfigurationException("Message content is in the blob store but no blob store directory is configured");
+        }
+
+        return directory.resolve("tmp");
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM must support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes content to the temporary file.
+     */
+    @FunctionalInterface
+    private interface ContentWriter {
+        void write(OutputStream outputStream) throws IOException;
+    }
+}
@@ -0,0 +1,19 @@
+package integration.messaging.content;
+
+/**
+ * The form message headers are written in.
+ * 
+ * @author Brendan Douglas
+ */
+public enum HeaderEncoding {
+
+    /**
+     * JSON text.
+     */
+    JSON,
+
+    /**
+     * The compact binary form written by BinaryHeaderCodec.
+     */
+    BINARY
+}
@@ -0,0 +1,21 @@
+package integration.messaging.content;
+
+/**
+ * How message headers are stored.
+ * 
+ * @author Brendan Douglas
+ */
+public enum HeaderStorageMode {
+
+    /**
+     * Each message stores its headers merged with all the headers of the message
+     * it was created from.
+     */
+    FULL,
+
+    /**
+     * Each message only stores its own headers. The full headers are rebuilt from
+     * the message flow steps it was created from when they are read.
+     */
+    DELTA
+}
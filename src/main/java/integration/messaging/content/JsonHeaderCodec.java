@@ -0,0 +1,29 @@
+package integration.messaging.content;
+
+import java.util.Map;
+
+import integration.core.util.Utils;
+
+/**
+ * Stores headers as JSON. Anything not written by another codec is assumed to
+ * be JSON.
+ * 
+ * @author Brendan Douglas
+ */
+public class JsonHeaderCodec implements MessageHeaderCodec {
+
+    @Override
+    public boolean isEncodedBy(String stored) {
+        return true;
+    }
+
+    @Override
+    public String encode(Map<String, Object> headers) {
+        return Utils.convertToJSON(headers);
+    }
+
+    @Override
+    public Map<String, Object> decode(String stored) {
+        return Utils.convertFromJSON(stored);
+    }
+}
@@ -0,0 +1,238 @@
+package integration.messaging.content;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.camel.Exchange;
+
+/**
+ * Message content which can be held as bytes, a byte buffer, a stream or text.
+ *
+ * Content is only decoded to text, using its declared charset, the first time
+ * a step asks for text and the text is then kept. A step which works with
+ * bytes never pays for a UTF-16 copy of mostly ASCII content, and a step which
+ * needs text only pays for one.
+ *
+ * Stream content can only be read once so it is read into memory the first
+ * time it is used.
+ *
+ * Content held in the blob store is not read into memory until a step asks for
+ * its text or bytes. Each stream opened over it reads the blob file, so a step
+ * which only streams the content, eg. writing it to a file, never holds it in
+ * memory.
+ *
+ * @author Brendan Douglas
+ */
+public final class MessageContent {
+    private final Charset charset;
+
+    private byte[] bytes;
+
+    private ByteBuffer buffer;
+
+    private InputStream stream;
+
+    private String text;
+
+    private ContentSource source;
+
+    private String blobAddress;
+
+    private MessageContent(Charset charset) {
+        this.charset = charset != null ? charset : StandardCharsets.UTF_8;
+    }
+
+    public static MessageContent of(String text) {
+        MessageContent content = new MessageContent(StandardCharsets.UTF_8);
+        content.text = text;
+
+        return content;
+    }
+
+    public static MessageContent of(byte[] bytes, Charset charset) {
+        MessageContent content = new MessageContent(charset);
+        content.bytes = bytes;
+
+        return content;
+    }
+
+    public static MessageContent of(ByteBuffer buffer, Charset charset) {
+        MessageContent content = new MessageContent(charset);
+        content.buffer = buffer.asReadOnlyBuffer();
+
+        return content;
+    }
+
+    public static MessageContent of(InputStream stream, Charset charset) {
+        MessageContent content = new MessageContent(charset);
+        content.stream = stream;
+
+        return content;
+    }
+
+    /**
+     * Returns content held in the blob store which is read from the source each
+     * time it is used.
+     *
+     * @param blobAddress
+     * @param source
+     * @param charset
+     * @return
+     */
+    public static MessageContent ofBlob(String blobAddress, ContentSource source, Charset charset) {
+        MessageContent content = new MessageContent(charset);
+        content.blobAddress = blobAddress;
+        content.source = source;
+
+        return content;
+    }
+
+    /**
+     * Returns the body of an exchange as message content without converting it to
+     * text. Bodies which are not already content, text, bytes, a buffer or a
+     * stream are converted to bytes. The charset is the one set on the exchange,
+     * otherwise UTF-8.
+     *
+     * @param exchange
+     * @return
+     */
+    public static MessageContent from(Exchange exchange) {
+        Object body = exchange.getMessage().getBody();
+
+        if (body instanceof MessageContent content) {
+            return content;
+        }
+
+        if (body instanceof String string) {
+            return of(string);
+        }
+
+        String charsetName = exchange.getProperty(Exchange.CHARSET_NAME, String.class);
+        Charset charset = charsetName != null ? Charset.forName(charsetName) : StandardCharsets.UTF_8;
+
+        if (body instanceof ByteBuffer byteBuffer) {
+            return of(byteBuffer, charset);
+        }
+
+        if (body instanceof InputStream inputStream) {
+            return of(inputStream, charset);
+        }
+
+        return of(exchange.getMessage().getBody(byte[].class), charset);
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * The blob store address of content read from the blob store, otherwise null.
+     *
+     * @return
+     */
+    public String getBlobAddress() {
+        return blobAddress;
+    }
+
+    /**
+     * Returns true if the content has already been decoded to text, or was
+     * supplied as text.
+     *
+     * @return
+     */
+    public synchronized boolean isText() {
+        return text != null;
+    }
+
+    /**
+     * Returns the content as text, decoding it the first time.
+     *
+     * @return
+     */
+    public synchronized String asString() {
+        if (text == null) {
+            if (buffer != null) {
+                text = charset.decode(buffer.duplicate()).toString();
+            } else {
+                byte[] contentBytes = asBytes();
+                text = contentBytes != null ? new String(contentBytes, charset) : null;
+            }
+        }
+
+        return text;
+    }
+
+    /**
+     * Returns the content as bytes in the content charset. The returned array must
+     * not be modified.
+     *
+     * @return
+     */
+    public synchronized byte[] asBytes() {
+        if (bytes == null) {
+            if (stream != null) {
+                try (InputStream inputStream = stream) {
+                    bytes = inputStream.readAllBytes();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to read the message content", e);
+                } finally {
+                    stream = null;
+                }
+            } else if (buffer != null) {
+                ByteBuffer duplicate = buffer.duplicate();
+                bytes = new byte[duplicate.remaining()];
+                duplicate.get(bytes);
+            } else if (text != null) {
+                bytes = text.getBytes(charset);
+            } else if (source != null) {
+                try (InputStream inputStream = source.open()) {
+                    bytes = inputStream.readAllBytes();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to read the message content", e);
+                }
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Opens a stream over the content bytes. Blob store content which has not
+     * been read into memory is streamed from the blob store.
+     *
+     * @return
+     */
+    public InputStream openStream() {
+        synchronized (this) {
+            if (source != null && bytes == null && text == null) {
+                try {
+                    return source.open();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to read the message content", e);
+                }
+            }
+        }
+
+        byte[] contentBytes = asBytes();
+
+        return new ByteArrayInputStream(contentBytes != null ? contentBytes : new byte[0]);
+    }
+
+    @Override
+    public String toString() {
+        return asString();
+    }
+
+    /**
+     * Opens a new stream over content which is not held in memory.
+     */
+    @FunctionalInterface
+    public interface ContentSource {
+        InputStream open() throws IOException;
+    }
+}
@@ -0,0 +1,254 @@
+package integration.messaging.content;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.cache.CacheMode;
+import org.apache.ignite.configuration.CacheConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * A read through cache of message content keyed by message flow step id.
+ * Content is added when a message flow step is stored so the next component
+ * can usually get the content without reading the database.
+ *
+ * There are two levels. L1 is local to the node and bounded by the total size
+ * of the content it holds, evicting the least recently used content first. L1
+ * is split into segments by message flow step id, each with its own lock and an
+ * equal share of the size, so lookups from different consumer threads rarely
+ * wait on each other. Eviction is least recently used within a segment. L2
+ * is an optional Ignite cache shared by the cluster so a step stored on one node
+ * can be read from the cache on another. L2 entries expire after a configurable
+ * time.
+ *
+ * Content is immutable once stored so entries never need to be invalidated.
+ *
+ * Hits and misses are published as the integration.content.cache counter
+ * tagged by level and result.
+ *
+ * @author Brendan Douglas
+ */
+@Component
+public class MessageContentCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageContentCache.class);
+
+    public static final String L2_CACHE = "messageContentCache";
+
+    private final Ignite ignite;
+
+    private final boolean l2Enabled;
+
+    private final long l2ExpirySeconds;
+
+    private final long maxEntrySize;
+
+    private final Segment[] l1;
+
+    private IgniteCache<Long, String> l2;
+
+    private final Counter l1Hits;
+    private final Counter l1Misses;
+    private final Counter l2Hits;
+    private final Counter l2Misses;
+
+    public MessageContentCache(@Value("${integration.messaging.contentCache.maxSize:67108864}") long maxSize,
+            @Value("${integration.messaging.contentCache.maxEntrySize:1048576}") long maxEntrySize,
+            @Value("${integration.messaging.contentCache.ignite:false}") boolean l2Enabled,
+            @Value("${integration.messaging.contentCache.igniteExpiry:600}") long l2ExpirySeconds,
+            @Value("${integration.messaging.contentCache.segments:16}") int segments, Ignite ignite,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        this.maxEntrySize = maxEntrySize;
+
+        this.l1 = new Segment[Math.max(1, segments)];
+
+        for (int i = 0; i < l1.length; i++) {
+            l1[i] = new Segment(maxSize / l1.length);
+        }
+
+        this.l2Enabled = l2Enabled;
+        this.l2ExpirySeconds = l2ExpirySeconds;
+        this.ignite = ignite;
+
+        MeterRegistry registry = meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+        this.l1Hits = counter(registry, "l1", "hit");
+        this.l1Misses = counter(registry, "l1", "miss");
+        this.l2Hits = counter(registry, "l2", "hit");
+        this.l2Misses = counter(registry, "l2", "miss");
+    }
+
+    private static Counter counter(MeterRegistry registry, String level, String result) {
+        return Counter.builder("integration.content.cache")
+            .description("Message content cache lookups")
+            .tag("level", level)
+            .tag("result", result)
+            .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!l2Enabled) {
+            return;
+        }
+
+        CacheConfiguration<Long, String> configuration = new CacheConfiguration<>(L2_CACHE);
+        configuration.setCacheMode(CacheMode.PARTITIONED);
+        configuration.setBackups(0);
+        configuration.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.SECONDS, l2ExpirySeconds)));
+
+        l2 = ignite.getOrCreateCache(configuration);
+    }
+
+    /**
+     * Returns the cached content for a message flow step or null if it is not
+     * cached.
+     *
+     * @param messageFlowStepId
+     * @return
+     */
+    public String get(long messageFlowStepId) {
+        String content = getSegment(messageFlowStepId).get(messageFlowStepId);
+
+        if (content != null) {
+            l1Hits.increment();
+            return content;
+        }
+
+        l1Misses.increment();
+
+        if (l2 == null) {
+            return null;
+        }
+
+        try {
+            content = l2.get(messageFlowStepId);
+        } catch (Exception e) {
+            // The database is the source of truth so a cache failure is not fatal.
+            LOGGER.warn("Unable to read message content from the Ignite cache", e);
+        }
+
+        if (content == null) {
+            l2Misses.increment();
+            return null;
+        }
+
+        l2Hits.increment();
+        putLocal(messageFlowStepId, content);
+
+        return content;
+    }
+
+    /**
+     * Adds content to the cache. If a transaction is active the content is only
+     * added once it commits so content which was rolled back is never cached.
+     *
+     * @param messageFlowStepId
+     * @param content
+     */
+    public void put(long messageFlowStepId, String content) {
+        if (content == null) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+
+                @Override
+                public void afterCommit() {
+                    putNow(messageFlowStepId, content);
+                }
+            });
+        } else {
+            putNow(messageFlowStepId, content);
+        }
+    }
+
+    private void putNow(long messageFlowStepId, String content) {
+        putLocal(messageFlowStepId, content);
+
+        if (l2 != null) {
+            try {
+                l2.putAsync(messageFlowStepId, content);
+            } catch (Exception e) {
+                LOGGER.warn("Unable to add message content to the Ignite cache", e);
+            }
+        }
+    }
+
+    /**
+     * Adds content to L1. Content larger than the maximum entry size is not held
+     * locally.
+     *
+     * @param messageFlowStepId
+     * @param content
+     */
+    private void putLocal(long messageFlowStepId, String content) {
+        if (content.length() > maxEntrySize) {
+            return;
+        }
+
+        getSegment(messageFlowStepId).put(messageFlowStepId, content);
+    }
+
+    private Segment getSegment(long messageFlowStepId) {
+        return l1[Math.floorMod(Long.hashCode(messageFlowStepId) * 0x9E3779B9, l1.length)];
+    }
+
+    /**
+     * A part of L1 with its own lock and share of the maximum size.
+     */
+    private static class Segment {
+        // Access ordered so iteration starts with the least recently used content.
+        private final LinkedHashMap<Long, String> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+        private final long maxSize;
+
+        private long size;
+
+        private Segment(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        private synchronized String get(long messageFlowStepId) {
+            return entries.get(messageFlowStepId);
+        }
+
+        /**
+         * Adds content evicting the least recently used content until the size of
+         * the segment is within its limit.
+         */
+        private synchronized void put(long messageFlowStepId, String content) {
+            String previous = entries.put(messageFlowStepId, content);
+
+            if (previous != null) {
+                size = size - previous.length();
+            }
+
+            size = size + content.length();
+
+            Iterator<Map.Entry<Long, String>> iterator = entries.entrySet().iterator();
+
+            while (size > maxSize && iterator.hasNext()) {
+                size = size - iterator.next().getValue().length();
+                iterator.remove();
+            }
+        }
+    }
+}
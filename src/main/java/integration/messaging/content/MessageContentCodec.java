@@ -0,0 +1,183 @@
+package integration.messaging.content;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import integration.core.exception.ConfigurationException;
+
+/**
+ * Encodes message content before it is stored and decodes it when it is read.
+ *
+ * Content at least the blob store threshold size is written to the blob store
+ * and only a reference to it is stored. Blob store content can be decoded as
+ * content which streams from the blob store rather than as text.
+ *
+ * Content at least the threshold size is deflated and Base64 encoded, as the
+ * content column holds text, and stored with a marker prefix. The compressed
+ * form is only stored if it is smaller. Content which would otherwise be
+ * mistaken for encoded content is stored with an escape prefix, so content
+ * stored with compression off, or before it was turned on, is always read
+ * back correctly.
+ *
+ * @author Brendan Douglas
+ */
+@Component
+public class MessageContentCodec {
+    private static final char MARKER = '\u0001';
+
+    private static final String DEFLATED = MARKER + "deflate:";
+    private static final String RAW = MARKER + "raw:";
+    static final String BLOB = MARKER + "blob:";
+
+    private final ContentCompression compression;
+
+    private final int threshold;
+
+    private final FileBlobStore blobStore;
+
+    public MessageContentCodec(@Value("${integration.messaging.contentCompression:NONE}") ContentCompression compression,
+            @Value("${integration.messaging.contentCompressionThreshold:1024}") int threshold, FileBlobStore blobStore) {
+        this.compression = compression;
+        this.threshold = threshold;
+        this.blobStore = blobStore;
+    }
+
+    /**
+     * Returns the content to store.
+     *
+     * @param content
+     * @return
+     */
+    public String encode(String content) {
+        if (content == null) {
+            return null;
+        }
+
+        if (blobStore.isStoredHere(content)) {
+            return BLOB + blobStore.write(content);
+        }
+
+        if (compression != ContentCompression.NONE && content.length() >= threshold) {
+            String deflated = DEFLATED + Base64.getEncoder().encodeToString(deflate(content.getBytes(StandardCharsets.UTF_8)));
+
+            if (deflated.length() < content.length()) {
+                return deflated;
+            }
+        }
+
+        if (!content.isEmpty() && content.charAt(0) == MARKER) {
+            return RAW + content;
+        }
+
+        return content;
+    }
+
+    /**
+     * Returns the stored content which references content already in the blob
+     * store.
+     *
+     * @param blobAddress
+     * @return
+     */
+    public String encodeBlobReference(String blobAddress) {
+        return BLOB + blobAddress;
+    }
+
+    /**
+     * Returns the content from stored content. Content in the blob store is not
+     * read. It is streamed from the blob store each time it is opened.
+     *
+     * @param stored
+     * @return
+     */
+    public MessageContent decodeContent(String stored) {
+        if (stored != null && stored.startsWith(BLOB)) {
+            String blobAddress = stored.substring(BLOB.length());
+
+            return MessageContent.ofBlob(blobAddress, () -> blobStore.open(blobAddress), StandardCharsets.UTF_8);
+        }
+
+        return MessageContent.of(decode(stored));
+    }
+
+    /**
+     * Returns the content from stored content.
+     *
+     * @param stored
+     * @return
+     */
+    public String decode(String stored) {
+        if (stored == null || stored.isEmpty() || stored.charAt(0) != MARKER) {
+            return stored;
+        }
+
+        if (stored.startsWith(RAW)) {
+            return stored.substring(RAW.length());
+        }
+
+        if (stored.startsWith(BLOB)) {
+            return blobStore.read(stored.substring(BLOB.length()));
+        }
+
+        if (stored.startsWith(DEFLATED)) {
+            return new String(inflate(Base64.getDecoder().decode(stored.substring(DEFLATED.length()))), StandardCharsets.UTF_8);
+        }
+
+        // Not written by this codec.
+        return stored;
+    }
+
+    private byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(compression.getLevel());
+
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, input.length / 4));
+            byte[] buffer = new byte[8192];
+
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] inflate(byte[] input) {
+        Inflater inflater = new Inflater();
+
+        try {
+            inflater.setInput(input);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length * 4);
+            byte[] buffer = new byte[8192];
+
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ConfigurationException("Stored message content is truncated or corrupt");
+                }
+
+                output.write(buffer, 0, length);
+            }
+
+            return output.toByteArray();
+        } catch (DataFormatException e) {
+            throw new ConfigurationException("Stored message content is corrupt. " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
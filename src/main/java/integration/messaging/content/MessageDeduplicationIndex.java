@@ -0,0 +1,196 @@
+package integration.messaging.content;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Maps a SHA-256 content address to the id of the stored message with that
+ * content so identical messages can share a single message row rather than a
+ * new row being written for each message flow step.
+ *
+ * The address covers the content type and the content only. A shared message
+ * is stored without headers and the headers of each step are held by the
+ * MessageFlowStepHeaderStore instead, so steps with different headers can
+ * share a message.
+ *
+ * The index is held in the message_content_address table which is created on
+ * startup when deduplication is enabled. A background job removes the rows
+ * which reference messages which no longer exist.
+ *
+ * @author Brendan Douglas
+ */
+@Component
+public class MessageDeduplicationIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageDeduplicationIndex.class);
+
+    private static final String TABLE = "message_content_address";
+
+    private static final int CLEANUP_PAGE_SIZE = 1000;
+
+    private final boolean enabled;
+
+    private final long cleanupInterval;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private ScheduledExecutorService cleaner;
+
+    public MessageDeduplicationIndex(@Value("${integration.messaging.deduplicateMessages:false}") boolean enabled,
+            @Value("${integration.messaging.deduplicateMessages.cleanupInterval:3600000}") long cleanupInterval, DataSource dataSource) {
+        this.enabled = enabled;
+        this.cleanupInterval = cleanupInterval;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        jdbcTemplate.execute("create table if not exists " + TABLE + " (content_address char(64) not null primary key, message_id bigint not null)");
+
+        cleaner = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("content-address-cleanup-"));
+        cleaner.scheduleWithFixedDelay(this::cleanup, cleanupInterval, cleanupInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (cleaner != null) {
+            cleaner.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the content address of a message.
+     *
+     * @param content
+     * @param contentType
+     * @return
+     */
+    public String getContentAddress(String content, String contentType) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            update(digest, contentType);
+            update(digest, content);
+
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM must support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Adds a value to the digest. Each value is terminated so different splits of
+     * the same characters give different addresses.
+     */
+    private void update(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Returns the id of the message stored with the content address or null if
+     * there isn't one.
+     *
+     * @param contentAddress
+     * @return
+     */
+    public Long findMessageId(String contentAddress) {
+        List<Long> messageIds = jdbcTemplate.queryForList("select message_id from " + TABLE + " where content_address = ?", Long.class,
+                contentAddress);
+
+        return messageIds.isEmpty() ? null : messageIds.get(0);
+    }
+
+    /**
+     * Records the message stored with a content address. If another transaction
+     * has already recorded a message for the address that message is kept.
+     *
+     * @param contentAddress
+     * @param messageId
+     */
+    public void add(String contentAddress, long messageId) {
+        jdbcTemplate.update("insert ignore into " + TABLE + " (content_address, message_id) values (?, ?)", contentAddress, messageId);
+    }
+
+    /**
+     * Removes the rows which reference messages which no longer exist. The index
+     * is read a page at a time in address order.
+     */
+    private void cleanup() {
+        try {
+            String lastAddress = "";
+
+            while (true) {
+                List<Object[]> rows = jdbcTemplate.query("select content_address, message_id from " + TABLE + " where content_address > ? order by content_address limit ?",
+                        (resultSet, rowNumber) -> new Object[] { resultSet.getString(1), resultSet.getLong(2) }, lastAddress, CLEANUP_PAGE_SIZE);
+
+                if (rows.isEmpty()) {
+                    break;
+                }
+
+                List<Long> messageIds = new ArrayList<>(rows.size());
+
+                for (Object[] row : rows) {
+                    messageIds.add((Long) row[1]);
+                }
+
+                Set<Long> existing = new HashSet<>(entityManager.createQuery("select m.id from Message m where m.id in (:messageIds)", Long.class)
+                        .setParameter("messageIds", messageIds)
+                        .getResultList());
+
+                List<Object[]> removed = new ArrayList<>();
+
+                for (Object[] row : rows) {
+                    if (!existing.contains(row[1])) {
+                        removed.add(row);
+                    }
+                }
+
+                if (!removed.isEmpty()) {
+                    jdbcTemplate.batchUpdate("delete from " + TABLE + " where content_address = ? and message_id = ?", removed);
+                }
+
+                lastAddress = (String) rows.get(rows.size() - 1)[0];
+            }
+        } catch (Exception e) {
+            LOGGER.error("Content address cleanup failed", e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package integration.messaging.content;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Holds the stored headers of each message flow step when messages are
+ * deduplicated. A deduplicated message can be shared by steps from different
+ * message flows so it is stored without headers and the headers of each step
+ * are held here instead.
+ *
+ * The headers are held in the message_flow_step_headers table which is created
+ * on startup when deduplication is enabled. Steps stored before deduplication
+ * was enabled have no row and their headers are still read from the message.
+ *
+ * @author Brendan Douglas
+ */
+@Component
+public class MessageFlowStepHeaderStore {
+    private static final String TABLE = "message_flow_step_headers";
+
+    private final boolean enabled;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public MessageFlowStepHeaderStore(@Value("${integration.messaging.deduplicateMessages:false}") boolean enabled, DataSource dataSource) {
+        this.enabled = enabled;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        jdbcTemplate.execute("create table if not exists " + TABLE + " (message_flow_step_id bigint not null primary key, headers mediumtext)");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Stores the headers of a message flow step.
+     *
+     * @param messageFlowStepId
+     * @param headers the headers as stored.
+     */
+    public void add(long messageFlowStepId, String headers) {
+        jdbcTemplate.update("insert into " + TABLE + " (message_flow_step_id, headers) values (?, ?)", messageFlowStepId, headers);
+    }
+
+    /**
+     * Stores the same headers for a number of message flow steps in a single JDBC
+     * batch.
+     *
+     * @param messageFlowStepIds
+     * @param headers the headers as stored.
+     */
+    public void addAll(List<Long> messageFlowStepIds, String headers) {
+        List<Object[]> rows = new ArrayList<>(messageFlowStepIds.size());
+
+        for (Long messageFlowStepId : messageFlowStepIds) {
+            rows.add(new Object[] { messageFlowStepId, headers });
+        }
+
+        jdbcTemplate.batchUpdate("insert into " + TABLE + " (message_flow_step_id, headers) values (?, ?)", rows);
+    }
+
+    /**
+     * Stores the headers of a message flow step, replacing any already stored.
+     *
+     * @param messageFlowStepId
+     * @param headers the headers as stored.
+     */
+    public void put(long messageFlowStepId, String headers) {
+        jdbcTemplate.update("insert into " + TABLE + " (message_flow_step_id, headers) values (?, ?) on duplicate key update headers = values(headers)",
+                messageFlowStepId, headers);
+    }
+
+    /**
+     * Returns the stored headers of a message flow step or null if there is no row
+     * for the step.
+     *
+     * @param messageFlowStepId
+     * @return
+     */
+    public String find(long messageFlowStepId) {
+        List<String> headers = jdbcTemplate.queryForList("select headers from " + TABLE + " where message_flow_step_id = ?", String.class,
+                messageFlowStepId);
+
+        return headers.isEmpty() ? null : headers.get(0);
+    }
+}
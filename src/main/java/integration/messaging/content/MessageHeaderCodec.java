@@ -0,0 +1,23 @@
+package integration.messaging.content;
+
+import java.util.Map;
+
+/**
+ * Converts message headers to and from the text stored with a message.
+ * 
+ * @author Brendan Douglas
+ */
+public interface MessageHeaderCodec {
+
+    /**
+     * Returns true if the stored headers were written by this codec.
+     * 
+     * @param stored
+     * @return
+     */
+    boolean isEncodedBy(String stored);
+
+    String encode(Map<String, Object> headers);
+
+    Map<String, Object> decode(String stored);
+}
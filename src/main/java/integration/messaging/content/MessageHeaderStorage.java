@@ -0,0 +1,149 @@
+package integration.messaging.content;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides which message headers are stored and in what form.
+ *
+ * If a list of persisted headers is configured only those headers are stored,
+ * otherwise all headers are. Headers starting with one of the configured
+ * transient prefixes are never stored. No prefixes are configured by default as
+ * some Camel headers, eg. CamelFileName, are read back by later components.
+ *
+ * Headers are written with the configured encoding, JSON or a compact binary
+ * form. Headers with a value the binary form can't hold are written as JSON.
+ * Headers written by either codec can always be read.
+ *
+ * In DELTA mode a message stores only the headers of its own exchange, marked
+ * as a delta, rather than those headers merged with every header of the
+ * message flow step it was created from. Storage and JSON processing per step
+ * then stay flat as a route gets longer. The full headers are rebuilt when a
+ * message flow step is retrieved by combining the deltas up the chain of from
+ * message flow steps, stopping at headers without the delta marker which were
+ * stored in FULL mode.
+ *
+ * @author Brendan Douglas
+ */
+@Component
+public class MessageHeaderStorage {
+    public static final String DELTA_MARKER = "$headerDelta";
+
+    private final HeaderStorageMode mode;
+
+    private final Set<String> persistedHeaders;
+
+    private final List<String> transientHeaderPrefixes;
+
+    private final BinaryHeaderCodec binaryCodec = new BinaryHeaderCodec();
+    private final MessageHeaderCodec jsonCodec = new JsonHeaderCodec();
+
+    private final MessageHeaderCodec writeCodec;
+
+    public MessageHeaderStorage(@Value("${integration.messaging.headerStorage:FULL}") HeaderStorageMode mode,
+            @Value("${integration.messaging.persistedHeaders:}") List<String> persistedHeaders,
+            @Value("${integration.messaging.transientHeaderPrefixes:}") List<String> transientHeaderPrefixes,
+            @Value("${integration.messaging.headerEncoding:JSON}") HeaderEncoding headerEncoding) {
+        this.mode = mode;
+        this.persistedHeaders = persistedHeaders.stream().map(String::trim).filter(header -> !header.isEmpty()).collect(Collectors.toSet());
+        this.transientHeaderPrefixes = transientHeaderPrefixes.stream().map(String::trim).filter(prefix -> !prefix.isEmpty()).toList();
+
+        this.writeCodec = headerEncoding == HeaderEncoding.BINARY ? binaryCodec : jsonCodec;
+    }
+
+    /**
+     * Returns true if the headers of the from message flow step should be merged
+     * into a new steps headers when it is stored.
+     *
+     * @return
+     */
+    public boolean isMergedOnWrite() {
+        return mode == HeaderStorageMode.FULL;
+    }
+
+    /**
+     * Returns true if the headers were stored as a delta against the headers of
+     * the from message flow step.
+     *
+     * @param headers
+     * @return
+     */
+    public boolean isDelta(Map<String, Object> headers) {
+        return Boolean.TRUE.equals(headers.get(DELTA_MARKER));
+    }
+
+    /**
+     * Returns the text to store for a messages headers.
+     *
+     * @param headers
+     * @return
+     */
+    public String toStored(Map<String, Object> headers) {
+        if (headers == null) {
+            return writeCodec.encode(headers);
+        }
+
+        Map<String, Object> stored = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Object> header : headers.entrySet()) {
+            if (isPersisted(header.getKey())) {
+                stored.put(header.getKey(), header.getValue());
+            }
+        }
+
+        if (mode == HeaderStorageMode.DELTA) {
+            stored.put(DELTA_MARKER, true);
+        }
+
+        return encode(stored);
+    }
+
+    /**
+     * Returns the text for full headers which have been rebuilt from deltas. The
+     * headers are not marked as a delta.
+     *
+     * @param headers
+     * @return
+     */
+    public String toStoredFull(Map<String, Object> headers) {
+        return encode(headers);
+    }
+
+    private String encode(Map<String, Object> headers) {
+        if (writeCodec == binaryCodec && !binaryCodec.canEncode(headers)) {
+            return jsonCodec.encode(headers);
+        }
+
+        return writeCodec.encode(headers);
+    }
+
+    /**
+     * Returns the headers from stored headers.
+     *
+     * @param stored
+     * @return
+     */
+    public Map<String, Object> fromStored(String stored) {
+        if (binaryCodec.isEncodedBy(stored)) {
+            return binaryCodec.decode(stored);
+        }
+
+        return jsonCodec.decode(stored);
+    }
+
+    private boolean isPersisted(String header) {
+        for (String prefix : transientHeaderPrefixes) {
+            if (header.startsWith(prefix)) {
+                return false;
+            }
+        }
+
+        return persistedHeaders.isEmpty() || persistedHeaders.contains(header);
+    }
+}
@@ -0,0 +1,59 @@
+package integration.messaging.outbox;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The number of outbox events to read in a single batch. The size grows while
+ * full batches are being read (a backlog exists) and dispatched within the
+ * target time, and shrinks when dispatch is slower than the target or the
+ * backlog has cleared.
+ *
+ * Shared by all the concurrent dispatch runs for a components event type.
+ *
+ * @author Brendan Douglas
+ */
+public class AdaptiveBatchSize {
+    private final int minimum;
+    private final int maximum;
+    private final long targetDispatchNanos;
+
+    private int current;
+
+    public AdaptiveBatchSize(int minimum, int maximum, long targetDispatchMillis) {
+        if (minimum < 1 || maximum < minimum) {
+            throw new IllegalArgumentException("Invalid outbox batch size range. Minimum: " + minimum + ", maximum: " + maximum);
+        }
+
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.targetDispatchNanos = TimeUnit.MILLISECONDS.toNanos(targetDispatchMillis);
+        this.current = minimum;
+    }
+
+    /**
+     * The number of events to read in the next batch.
+     *
+     * @return
+     */
+    public synchronized int get() {
+        return current;
+    }
+
+    /**
+     * Adjusts the batch size based on the result of dispatching a batch.
+     *
+     * @param requested the number of events which were requested.
+     * @param read      the number of events which were read.
+     * @param elapsedNanos the time taken to read and dispatch the batch.
+     */
+    public synchronized void update(int requested, int read, long elapsedNanos) {
+        if (elapsedNanos > targetDispatchNanos) {
+            current = Math.max(minimum, current / 2);
+        } else if (read == requested) {
+            current = Math.min(maximum, current * 2);
+        } else {
+            // The backlog has been cleared so drift back down towards what is actually being read.
+            current = Math.max(minimum, Math.max(read, current / 2));
+        }
+    }
+}
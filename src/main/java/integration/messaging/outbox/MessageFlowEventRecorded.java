@@ -0,0 +1,27 @@
+package integration.messaging.outbox;
+
+import integration.core.domain.messaging.MessageFlowTypeEvent;
+
+/**
+ * Application event published when a transactional outbox event has been
+ * recorded. It is only acted on once the recording transaction commits.
+ * 
+ * @author Brendan Douglas
+ */
+public class MessageFlowEventRecorded {
+    private final long componentRouteId;
+    private final MessageFlowTypeEvent type;
+
+    public MessageFlowEventRecorded(long componentRouteId, MessageFlowTypeEvent type) {
+        this.componentRouteId = componentRouteId;
+        this.type = type;
+    }
+
+    public long getComponentRouteId() {
+        return componentRouteId;
+    }
+
+    public MessageFlowTypeEvent getType() {
+        return type;
+    }
+}
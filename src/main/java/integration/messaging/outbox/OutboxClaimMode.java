@@ -0,0 +1,22 @@
+package integration.messaging.outbox;
+
+/**
+ * How a node claims a components outbox events for dispatch.
+ * 
+ * @author Brendan Douglas
+ */
+public enum OutboxClaimMode {
+
+    /**
+     * A distributed Ignite lock is held while a components events are dispatched
+     * so only a single node can dispatch them.
+     */
+    IGNITE_LOCK,
+
+    /**
+     * Events are claimed with SELECT ... FOR UPDATE SKIP LOCKED within the dispatch
+     * transaction. Multiple nodes and threads can dispatch the same components
+     * events in parallel as each claims a different set of rows.
+     */
+    SKIP_LOCKED
+}
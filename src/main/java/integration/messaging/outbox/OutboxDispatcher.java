@@ -0,0 +1,592 @@
+package integration.messaging.outbox;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.cluster.ClusterNode;
+import org.apache.ignite.events.EventType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import integration.core.domain.messaging.MessageFlowTypeEvent;
+import integration.messaging.ConcurrencyLimiter;
+import integration.messaging.VirtualThreads;
+import integration.messaging.service.MessagingFlowService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs the transactional outbox dispatch for all components on this node.
+ *
+ * Each component registers a dispatch task per event type. A task is run as
+ * soon as the transaction which recorded an event of that type commits so a
+ * message does not have to wait for the next timer tick before moving to the
+ * next component. Signals are coalesced so a burst of commits results in a
+ * single dispatch run.
+ *
+ * A single node wide sweep is the safety net for anything which was not
+ * signalled (eg. events recorded before a restart). Rather than every
+ * component polling for every event type, one query finds the component/event
+ * type pairs with pending events and only those dispatch tasks are run. The
+ * sweep interval backs off while there is nothing pending.
+ *
+ * By default a task never runs concurrently with itself. In SKIP_LOCKED claim
+ * mode a component can allow several concurrent dispatch runs as each run
+ * claims a different set of events.
+ *
+ * Each component/event type pair is an outbox partition. When partitioned
+ * ownership is enabled (the default) each partition is owned by a single
+ * cluster node, determined by Ignite affinity so ownership is rebalanced as
+ * nodes join and leave. A node only sweeps for the partitions it owns and commit
+ * signals for partitions owned by another node are forwarded to the owner, so
+ * lock traffic and event queries grow with the number of partitions per node
+ * rather than with the size of the cluster.
+ *
+ * Ownership does not take into account which components each node has, so a
+ * node can own a partition it has no dispatch task for. To stop those events
+ * being stranded the sweep also checks the partitions owned by other nodes for
+ * the components this node has. A partition which is still pending after the
+ * unowned dispatch delay is dispatched by this node, and a warning logged. This
+ * is safe in both claim modes as concurrent dispatch runs never claim the same
+ * events.
+ *
+ * The dispatch runs on threads owned by this class, never on the shared Spring
+ * scheduler. The execution mode determines whether all components share a
+ * bounded pool, are striped over single threaded executors or each run gets a
+ * virtual thread. If no outbox execution mode is configured it is SHARED, or
+ * VIRTUAL when the node execution mode is VIRTUAL. In that case the number of
+ * dispatch runs in progress is limited to the number of dispatch threads by a
+ * semaphore so the dispatch keeps the database load of the shared pool. An
+ * explicitly configured outbox execution mode is always used as configured.
+ *
+ * The number of events waiting to be dispatched is published as the
+ * integration.outbox.backlog gauge for each component and event type. The
+ * time between a dispatch being requested and it starting is published as the
+ * integration.outbox.dispatch.lag timer and the time taken by each run as the
+ * integration.outbox.dispatch.time timer.
+ *
+ * @author Brendan Douglas
+ */
+@Component
+public class OutboxDispatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboxDispatcher.class);
+
+    // The Ignite cache used for the outbox locks. Its affinity also determines partition ownership.
+    public static final String OUTBOX_CACHE = "eventCache3";
+
+    private static final String SIGNAL_TOPIC = "outboxDispatchSignal";
+
+    private final Map<String, DispatchTask> tasks = new ConcurrentHashMap<>();
+
+    // The backlog gauge values.  Kept separately from the tasks so a gauge stays bound to the same value when a component is registered again.
+    private final Map<String, AtomicLong> backlogs = new ConcurrentHashMap<>();
+
+    private final ExecutorService[] executors;
+
+    // Limits the dispatch runs in progress when running on virtual threads. Null otherwise.
+    private final Semaphore virtualPermits;
+
+    private final MeterRegistry meterRegistry;
+
+    private final OutboxClaimMode claimMode;
+
+    private final Ignite ignite;
+
+    private final boolean partitioned;
+
+    private final MessagingFlowService messagingFlowService;
+
+    private final ScheduledExecutorService sweeper;
+
+    private final long minSweepInterval;
+    private final long maxSweepInterval;
+
+    private long sweepInterval;
+
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    // When events were first seen pending for a partition owned by another node.
+    private final Map<String, Long> unownedPendingSince = new ConcurrentHashMap<>();
+
+    private final long unownedDispatchDelay;
+
+    public OutboxDispatcher(@Value("${integration.messaging.outbox.executionMode:}") String configuredExecutionMode,
+            @Value("${integration.messaging.outbox.dispatchThreads:4}") int dispatchThreads,
+            @Value("${integration.messaging.outbox.claimMode:IGNITE_LOCK}") OutboxClaimMode claimMode,
+            @Value("${integration.messaging.outbox.partitioned:true}") boolean partitioned,
+            @Value("${integration.messaging.outbox.sweepInterval:100}") long minSweepInterval,
+            @Value("${integration.messaging.outbox.maxSweepInterval:5000}") long maxSweepInterval,
+            @Value("${integration.messaging.outbox.unownedDispatchDelay:30000}") long unownedDispatchDelay, Ignite ignite,
+            MessagingFlowService messagingFlowService, ConcurrencyLimiter concurrencyLimiter, ObjectProvider<MeterRegistry> meterRegistry) {
+        OutboxExecutionMode executionMode = OutboxExecutionMode.SHARED;
+        boolean fromNodeMode = false;
+
+        if (!configuredExecutionMode.isBlank()) {
+            executionMode = OutboxExecutionMode.valueOf(configuredExecutionMode.trim());
+        } else if (concurrencyLimiter.isVirtual()) {
+            executionMode = OutboxExecutionMode.VIRTUAL;
+            fromNodeMode = true;
+
+            LOGGER.info("No outbox execution mode is configured and the node execution mode is VIRTUAL. The outbox dispatch will use virtual threads "
+                    + "limited to " + dispatchThreads + " runs at a time");
+        }
+
+        this.executors = createExecutors(executionMode, dispatchThreads);
+        this.virtualPermits = fromNodeMode ? new Semaphore(dispatchThreads) : null;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("outbox-sweep-"));
+        this.claimMode = claimMode;
+        this.partitioned = partitioned;
+        this.minSweepInterval = minSweepInterval;
+        this.maxSweepInterval = Math.max(minSweepInterval, maxSweepInterval);
+        this.sweepInterval = minSweepInterval;
+        this.unownedDispatchDelay = unownedDispatchDelay;
+        this.ignite = ignite;
+        this.messagingFlowService = messagingFlowService;
+        this.meterRegistry = meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+    }
+
+    /**
+     * Creates the dispatch executors for the execution mode.
+     *
+     * @param executionMode
+     * @param dispatchThreads the pool size when shared or the number of stripes when striped.
+     * @return
+     */
+    private static ExecutorService[] createExecutors(OutboxExecutionMode executionMode, int dispatchThreads) {
+        if (executionMode == OutboxExecutionMode.VIRTUAL) {
+            if (VirtualThreads.isSupported()) {
+                return new ExecutorService[] { VirtualThreads.newVirtualThreadPerTaskExecutor() };
+            }
+
+            LOGGER.warn("Virtual threads are not supported by this JVM. The outbox dispatch will use a shared pool");
+        }
+
+        if (executionMode == OutboxExecutionMode.STRIPED) {
+            ExecutorService[] stripes = new ExecutorService[dispatchThreads];
+
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("outbox-dispatch-" + i + "-"));
+            }
+
+            return stripes;
+        }
+
+        return new ExecutorService[] { Executors.newFixedThreadPool(dispatchThreads, new CustomizableThreadFactory("outbox-dispatch-")) };
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!partitioned) {
+            return;
+        }
+
+        // The affinity of the cache is used to assign partitions to nodes so it must exist.
+        ignite.getOrCreateCache(OUTBOX_CACHE);
+
+        // Signals forwarded from other nodes for partitions this node owns.
+        ignite.message().localListen(SIGNAL_TOPIC, (UUID nodeId, String key) -> {
+            signalLocal(key);
+            return true;
+        });
+
+        // Partitions move when the topology changes. Sweep the ones this node now owns rather than waiting for the next sweep.
+        ignite.events().localListen(event -> {
+            sweepAll();
+            return true;
+        }, EventType.EVT_NODE_JOINED, EventType.EVT_NODE_LEFT, EventType.EVT_NODE_FAILED);
+    }
+
+    /**
+     * Starts the node wide sweep once the application context is ready.
+     *
+     * @param event
+     */
+    @EventListener
+    public void onContextRefreshed(ContextRefreshedEvent event) {
+        if (sweeping.compareAndSet(false, true)) {
+            sweeper.schedule(this::sweep, minSweepInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * How events are claimed for dispatch on this node.
+     *
+     * @return
+     */
+    public OutboxClaimMode getClaimMode() {
+        return claimMode;
+    }
+
+    /**
+     * Registers the task which dispatches a components events of the supplied
+     * type.
+     *
+     * @param componentRouteId
+     * @param componentPath
+     * @param type
+     * @param dispatch
+     */
+    public void register(long componentRouteId, String componentPath, MessageFlowTypeEvent type, Runnable dispatch) {
+        register(componentRouteId, componentPath, type, 1, dispatch);
+    }
+
+    /**
+     * Registers the task which dispatches a components events of the supplied type
+     * allowing up to the supplied number of concurrent runs. Concurrent runs are
+     * only allowed in SKIP_LOCKED claim mode.
+     *
+     * @param componentRouteId
+     * @param componentPath
+     * @param type
+     * @param concurrency
+     * @param dispatch
+     */
+    public void register(long componentRouteId, String componentPath, MessageFlowTypeEvent type, int concurrency, Runnable dispatch) {
+        String key = getKey(componentRouteId, type);
+
+        Timer lag = Timer.builder("integration.outbox.dispatch.lag")
+            .description("Time between an outbox dispatch being requested and starting")
+            .tag("component", componentPath)
+            .tag("type", type.name())
+            .register(meterRegistry);
+
+        Timer time = Timer.builder("integration.outbox.dispatch.time")
+            .description("Time taken by an outbox dispatch run")
+            .tag("component", componentPath)
+            .tag("type", type.name())
+            .register(meterRegistry);
+
+        // All of a components event types are dispatched on the same stripe.
+        ExecutorService executor = executors[(int) Math.floorMod(componentRouteId, (long) executors.length)];
+
+        AtomicLong backlog = backlogs.computeIfAbsent(key, k -> {
+            AtomicLong value = new AtomicLong();
+
+            Gauge.builder("integration.outbox.backlog", value, AtomicLong::get)
+                .description("Outbox events waiting to be dispatched")
+                .tag("component", componentPath)
+                .tag("type", type.name())
+                .register(meterRegistry);
+
+            return value;
+        });
+
+        DispatchTask task = new DispatchTask(key, componentRouteId, type, dispatch, claimMode == OutboxClaimMode.SKIP_LOCKED ? Math.max(1, concurrency) : 1,
+                executor, lag, time, backlog);
+        tasks.put(key, task);
+    }
+
+    /**
+     * Records the number of events still waiting to be dispatched after a dispatch
+     * run.
+     *
+     * @param componentRouteId
+     * @param type
+     * @param backlog
+     */
+    public void recordBacklog(long componentRouteId, MessageFlowTypeEvent type, long backlog) {
+        DispatchTask task = tasks.get(getKey(componentRouteId, type));
+
+        if (task != null) {
+            task.backlog.set(backlog);
+        }
+    }
+
+    /**
+     * Requests a dispatch run for a components events of the supplied type on the
+     * node which owns the partition. If a run is already in progress another run
+     * will follow it.
+     *
+     * @param componentRouteId
+     * @param type
+     */
+    public void signal(long componentRouteId, MessageFlowTypeEvent type) {
+        String key = getKey(componentRouteId, type);
+
+        ClusterNode owner = getOwner(key);
+
+        if (owner == null || owner.isLocal()) {
+            signalLocal(key);
+        } else {
+            try {
+                ignite.message(ignite.cluster().forNode(owner)).send(SIGNAL_TOPIC, key);
+            } catch (Exception e) {
+                // The owner will pick the events up on its next sweep.
+                LOGGER.warn("Unable to forward outbox dispatch signal to node " + owner.id(), e);
+            }
+        }
+    }
+
+    /**
+     * The node wide safety net sweep. Each partition this node has a dispatch task
+     * for is checked for pending events. The partitions owned by
+     * this node are signalled, as are partitions owned by another node which have
+     * been pending for longer than the unowned dispatch delay. When nothing is
+     * pending the interval until the next sweep is doubled up to the maximum.
+     */
+    private void sweep() {
+        boolean found = false;
+
+        try {
+            Map<Long, Set<MessageFlowTypeEvent>> eventTypes = new HashMap<>();
+
+            for (DispatchTask task : tasks.values()) {
+                eventTypes.computeIfAbsent(task.componentRouteId, id -> EnumSet.noneOf(MessageFlowTypeEvent.class)).add(task.type);
+            }
+
+            Map<Long, Set<MessageFlowTypeEvent>> pending = messagingFlowService.getPendingEventTypes(eventTypes);
+
+            Set<String> pendingUnowned = new HashSet<>();
+
+            for (Map.Entry<Long, Set<MessageFlowTypeEvent>> entry : pending.entrySet()) {
+                for (MessageFlowTypeEvent type : entry.getValue()) {
+                    String key = getKey(entry.getKey(), type);
+
+                    if (!tasks.containsKey(key)) {
+                        continue;
+                    }
+
+                    if (isOwner(key)) {
+                        signalLocal(key);
+                        found = true;
+                    } else {
+                        pendingUnowned.add(key);
+                        found = dispatchIfStranded(key) || found;
+                    }
+                }
+            }
+
+            unownedPendingSince.keySet().retainAll(pendingUnowned);
+        } catch (Exception e) {
+            LOGGER.error("Error sweeping for outbox events", e);
+        } finally {
+            sweepInterval = found ? minSweepInterval : Math.min(sweepInterval * 2, maxSweepInterval);
+
+            try {
+                sweeper.schedule(this::sweep, sweepInterval, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down.
+            }
+        }
+    }
+
+    /**
+     * Signals a partition owned by another node if it has been pending for longer
+     * than the unowned dispatch delay, eg. because the owner has no dispatch task
+     * for the component.
+     *
+     * @param key
+     * @return true if the partition was signalled.
+     */
+    private boolean dispatchIfStranded(String key) {
+        long now = System.currentTimeMillis();
+
+        Long since = unownedPendingSince.putIfAbsent(key, now);
+
+        if (since == null || now - since < unownedDispatchDelay) {
+            return false;
+        }
+
+        LOGGER.warn("Outbox partition " + key + " has been pending for " + (now - since) + "ms on another node. Dispatching it on this node");
+
+        // Wait for another delay before warning again.
+        unownedPendingSince.put(key, now);
+
+        signalLocal(key);
+
+        return true;
+    }
+
+    /**
+     * Signals all the partitions this node owns without checking whether they have
+     * pending events.
+     */
+    private void sweepAll() {
+        for (String key : tasks.keySet()) {
+            if (isOwner(key)) {
+                signalLocal(key);
+            }
+        }
+    }
+
+    private void signalLocal(String key) {
+        DispatchTask task = tasks.get(key);
+
+        // Not all components dispatch all event types.
+        if (task != null) {
+            task.signal();
+        }
+    }
+
+    /**
+     * Returns the node which owns a partition or null if partitioned ownership is
+     * not enabled.
+     *
+     * @param key
+     * @return
+     */
+    private ClusterNode getOwner(String key) {
+        if (!partitioned) {
+            return null;
+        }
+
+        return ignite.affinity(OUTBOX_CACHE).mapKeyToNode(key);
+    }
+
+    private boolean isOwner(String key) {
+        ClusterNode owner = getOwner(key);
+
+        return owner == null || owner.isLocal();
+    }
+
+    /**
+     * Signals the matching dispatch task once the transaction which recorded the
+     * event has committed. Signalling any earlier would risk the dispatch query not
+     * seeing the event.
+     *
+     * @param event
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMessageFlowEventRecorded(MessageFlowEventRecorded event) {
+        signal(event.getComponentRouteId(), event.getType());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+
+        for (ExecutorService executor : executors) {
+            executor.shutdownNow();
+        }
+    }
+
+    private String getKey(long componentRouteId, MessageFlowTypeEvent type) {
+        return type + "-" + componentRouteId;
+    }
+
+    /**
+     * A dispatch task which never has more than the configured number of runs in
+     * progress.
+     */
+    private class DispatchTask implements Runnable {
+        private final String key;
+        private final long componentRouteId;
+        private final MessageFlowTypeEvent type;
+        private final Runnable dispatch;
+        private final int concurrency;
+        private final ExecutorService executor;
+        private final Timer lag;
+        private final Timer time;
+
+        private final AtomicInteger running = new AtomicInteger();
+
+        private final AtomicLong backlog;
+
+        // When the task moved from idle to pending or 0 if no signal is outstanding.  A single value is used for both so a run can never
+        // take the pending flag with the time of an earlier signal.
+        private final AtomicLong pendingSince = new AtomicLong();
+
+        DispatchTask(String key, long componentRouteId, MessageFlowTypeEvent type, Runnable dispatch, int concurrency, ExecutorService executor, Timer lag,
+                Timer time, AtomicLong backlog) {
+            this.key = key;
+            this.componentRouteId = componentRouteId;
+            this.type = type;
+            this.dispatch = dispatch;
+            this.concurrency = concurrency;
+            this.executor = executor;
+            this.lag = lag;
+            this.time = time;
+            this.backlog = backlog;
+        }
+
+        void signal() {
+            // Only the first of a number of coalesced signals sets the time.
+            pendingSince.compareAndSet(0, Math.max(1, System.nanoTime()));
+
+            int current;
+
+            do {
+                current = running.get();
+
+                if (current >= concurrency) {
+                    return;
+                }
+            } while (!running.compareAndSet(current, current + 1));
+
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Shutting down. Anything outstanding is picked up on the next start.
+                running.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (virtualPermits != null) {
+                try {
+                    virtualPermits.acquire();
+                } catch (InterruptedException e) {
+                    // Shutting down.
+                    running.decrementAndGet();
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+
+            long start = System.nanoTime();
+
+            long signalledAt = pendingSince.getAndSet(0);
+
+            // A concurrent run may already have taken the outstanding signal.
+            if (signalledAt != 0) {
+                lag.record(start - signalledAt, TimeUnit.NANOSECONDS);
+            }
+
+            try {
+                dispatch.run();
+            } catch (Exception e) {
+                LOGGER.error("Error dispatching outbox events", e);
+            } finally {
+                time.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                running.decrementAndGet();
+
+                if (virtualPermits != null) {
+                    virtualPermits.release();
+                }
+            }
+
+            // Signals received while running are handled by resubmitting the task rather than looping so
+            // other tasks waiting for a thread get a turn.
+            if (pendingSince.get() != 0) {
+                signal();
+            }
+        }
+    }
+}
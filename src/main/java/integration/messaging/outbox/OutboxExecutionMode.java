@@ -0,0 +1,27 @@
+package integration.messaging.outbox;
+
+/**
+ * The threads the outbox dispatch runs on.
+ * 
+ * @author Brendan Douglas
+ */
+public enum OutboxExecutionMode {
+
+    /**
+     * A single bounded pool shared by all components.
+     */
+    SHARED,
+
+    /**
+     * A number of single threaded stripes. Each component is assigned to a stripe
+     * so a slow or backlogged component can only delay the components on the same
+     * stripe.
+     */
+    STRIPED,
+
+    /**
+     * Each dispatch run is on its own virtual thread. Requires Java 21 or later,
+     * otherwise SHARED is used.
+     */
+    VIRTUAL
+}
@@ -0,0 +1,22 @@
+package integration.messaging.outbox;
+
+/**
+ * Where outbox events are stored.
+ * 
+ * @author Brendan Douglas
+ */
+public enum OutboxStorageMode {
+
+    /**
+     * Events are MessageFlowEvent entities which are deleted one batch at a time
+     * as they are dispatched.
+     */
+    ENTITY,
+
+    /**
+     * Events are stored in a set of tables which are rotated by time. Dispatched
+     * events are marked as processed rather than deleted and a background job
+     * truncates a table once every event in it has been processed.
+     */
+    PARTITIONED
+}
@@ -0,0 +1,380 @@
+package integration.messaging.outbox;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import integration.core.domain.messaging.MessageFlowTypeEvent;
+import integration.core.dto.MessageFlowEventDto;
+import integration.core.exception.ConfigurationException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Stores outbox events in a set of tables (outbox_event_0 .. outbox_event_n)
+ * which are rotated by time. Used when the storage mode is PARTITIONED.
+ *
+ * Events are always written to the table for the current time period.
+ * Dispatched events are marked as processed rather than deleted so the hot path
+ * does not pay for row deletes and the index churn that goes with them. A
+ * background job truncates a table once every event in it has been processed.
+ * The tables for the previous, current and next periods are never truncated
+ * so a table can't be truncated while events are still being written to it.
+ *
+ * Reads only query the active tables, which are the previous and current
+ * periods plus any older table still holding unprocessed events.
+ *
+ * The processed flag is the first column of the pending index so reads, counts
+ * and the sweep only visit unprocessed rows however many events have been
+ * dispatched since the table was last truncated.
+ *
+ * The tables are created by db/outbox-partitioned.sql. On startup each table is
+ * checked for the pending index, and the node refuses to start while events are
+ * still waiting in the ENTITY outbox as nothing would dispatch them.
+ *
+ * The event id returned to callers identifies both the table and the row.
+ *
+ * @author Brendan Douglas
+ */
+@Component
+public class PartitionedOutboxEventStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionedOutboxEventStore.class);
+
+    private static final String TABLE_PREFIX = "outbox_event_";
+
+    private static final String PENDING_INDEX_COLUMNS = "processed,component_route_id,type,id";
+
+    private final OutboxStorageMode storageMode;
+
+    private final int partitionCount;
+
+    private final long partitionInterval;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    // The tables known to contain unprocessed events.  Refreshed by the purge job.
+    private final Set<Integer> activePartitions = ConcurrentHashMap.newKeySet();
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private ScheduledExecutorService purger;
+
+    public PartitionedOutboxEventStore(@Value("${integration.messaging.outbox.storageMode:ENTITY}") OutboxStorageMode storageMode,
+            @Value("${integration.messaging.outbox.partitionCount:4}") int partitionCount,
+            @Value("${integration.messaging.outbox.partitionInterval:3600000}") long partitionInterval, DataSource dataSource) {
+        if (partitionCount < 4) {
+            throw new ConfigurationException("At least 4 outbox partitions are required. Partition count: " + partitionCount);
+        }
+
+        this.storageMode = storageMode;
+        this.partitionCount = partitionCount;
+        this.partitionInterval = partitionInterval;
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        Long entityEvents = entityManager.createQuery("select count(e) from MessageFlowEvent e", Long.class).getSingleResult();
+
+        if (entityEvents > 0) {
+            throw new ConfigurationException("The outbox storage mode can only be changed to PARTITIONED once the ENTITY outbox is empty. Pending events: "
+                    + entityEvents);
+        }
+
+        for (int partition = 0; partition < partitionCount; partition++) {
+            String indexColumns = jdbcTemplate.getJdbcTemplate()
+                    .queryForObject("select group_concat(column_name order by seq_in_index) from information_schema.statistics where table_schema = database() "
+                            + "and table_name = ? and index_name = ?", String.class, getTable(partition), getTable(partition) + "_pending");
+
+            if (!PENDING_INDEX_COLUMNS.equalsIgnoreCase(indexColumns)) {
+                throw new ConfigurationException("Outbox table " + getTable(partition) + " is missing or does not have the pending index (" + PENDING_INDEX_COLUMNS
+                        + "). See db/outbox-partitioned.sql");
+            }
+
+            // Until the first purge run everything is assumed to be active.
+            activePartitions.add(partition);
+        }
+
+        purger = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("outbox-purge-"));
+
+        long purgeInterval = Math.max(1000, partitionInterval / 4);
+        purger.scheduleWithFixedDelay(this::purge, 0, purgeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (purger != null) {
+            purger.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return storageMode == OutboxStorageMode.PARTITIONED;
+    }
+
+    /**
+     * Records an event in the table for the current time period.
+     *
+     * @param messageFlowId
+     * @param componentRouteId
+     * @param type
+     */
+    public void recordEvent(long messageFlowId, long componentRouteId, MessageFlowTypeEvent type) {
+        int partition = getCurrentPartition();
+
+        MapSqlParameterSource parameters = new MapSqlParameterSource().addValue("messageFlowId", messageFlowId)
+                .addValue("componentRouteId", componentRouteId).addValue("type", type.name());
+
+        jdbcTemplate.update("insert into " + getTable(partition) + " (message_flow_id, component_route_id, type) values (:messageFlowId, :componentRouteId, :type)",
+                parameters);
+
+        activePartitions.add(partition);
+    }
+
+    /**
+     * Records an event for each message flow in a single JDBC batch.
+     *
+     * @param messageFlowIds
+     * @param componentRouteId
+     * @param type
+     */
+    public void recordEvents(List<Long> messageFlowIds, long componentRouteId, MessageFlowTypeEvent type) {
+        int partition = getCurrentPartition();
+
+        MapSqlParameterSource[] parameters = new MapSqlParameterSource[messageFlowIds.size()];
+
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = new MapSqlParameterSource().addValue("messageFlowId", messageFlowIds.get(i))
+                    .addValue("componentRouteId", componentRouteId).addValue("type", type.name());
+        }
+
+        jdbcTemplate.batchUpdate("insert into " + getTable(partition) + " (message_flow_id, component_route_id, type) values (:messageFlowId, :componentRouteId, :type)",
+                parameters);
+
+        activePartitions.add(partition);
+    }
+
+    /**
+     * Reads unprocessed events, oldest table first.
+     *
+     * @param componentRouteId
+     * @param numberToRead
+     * @param type
+     * @param skipLocked claim the events with FOR UPDATE SKIP LOCKED.
+     * @return
+     */
+    public List<MessageFlowEventDto> getEvents(long componentRouteId, int numberToRead, MessageFlowTypeEvent type, boolean skipLocked) {
+        List<MessageFlowEventDto> events = new ArrayList<>();
+
+        for (int partition : getActivePartitions()) {
+            int remaining = numberToRead - events.size();
+
+            if (remaining <= 0) {
+                break;
+            }
+
+            MapSqlParameterSource parameters = new MapSqlParameterSource().addValue("componentRouteId", componentRouteId)
+                    .addValue("type", type.name()).addValue("limit", remaining);
+
+            String sql = "select id, message_flow_id from " + getTable(partition)
+                    + " where processed = false and component_route_id = :componentRouteId and type = :type order by id limit :limit";
+
+            if (skipLocked) {
+                sql = sql + " for update skip locked";
+            }
+
+            List<MessageFlowEventDto> partitionEvents = jdbcTemplate.query(sql, parameters, (resultSet, rowNumber) -> {
+                MessageFlowEventDto event = new MessageFlowEventDto();
+                event.setId(toEventId(partition, resultSet.getLong("id")));
+                event.setMessageFlowId(resultSet.getLong("message_flow_id"));
+
+                return event;
+            });
+
+            events.addAll(partitionEvents);
+        }
+
+        return events;
+    }
+
+    /**
+     * Returns the number of unprocessed events.
+     *
+     * @param componentRouteId
+     * @param type
+     * @return
+     */
+    public long getEventCount(long componentRouteId, MessageFlowTypeEvent type) {
+        long count = 0;
+
+        for (int partition : getActivePartitions()) {
+            MapSqlParameterSource parameters = new MapSqlParameterSource().addValue("componentRouteId", componentRouteId)
+                    .addValue("type", type.name());
+
+            Long partitionEvents = jdbcTemplate.queryForObject("select count(*) from " + getTable(partition)
+                    + " where processed = false and component_route_id = :componentRouteId and type = :type", parameters, Long.class);
+
+            count = count + (partitionEvents != null ? partitionEvents : 0);
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns which of the supplied event types of each component have unprocessed
+     * events. The rows are grouped on the leading columns of the pending index so
+     * each table is read once per component and type rather than once per event.
+     *
+     * @param eventTypes the event types to check for each component.
+     * @return
+     */
+    public Map<Long, Set<MessageFlowTypeEvent>> getPendingEventTypes(Map<Long, Set<MessageFlowTypeEvent>> eventTypes) {
+        Map<Long, Set<MessageFlowTypeEvent>> pendingEventTypes = new HashMap<>();
+
+        if (eventTypes.isEmpty()) {
+            return pendingEventTypes;
+        }
+
+        for (int partition : getActivePartitions()) {
+            MapSqlParameterSource parameters = new MapSqlParameterSource().addValue("componentRouteIds", eventTypes.keySet());
+
+            List<Object[]> rows = jdbcTemplate.query("select component_route_id, type from " + getTable(partition)
+                    + " where processed = false and component_route_id in (:componentRouteIds) group by component_route_id, type", parameters,
+                    (resultSet, rowNumber) -> new Object[] { resultSet.getLong("component_route_id"), resultSet.getString("type") });
+
+            for (Object[] row : rows) {
+                MessageFlowTypeEvent type = MessageFlowTypeEvent.valueOf((String) row[1]);
+
+                if (eventTypes.get(row[0]).contains(type)) {
+                    pendingEventTypes.computeIfAbsent((Long) row[0], id -> EnumSet.noneOf(MessageFlowTypeEvent.class)).add(type);
+                }
+            }
+        }
+
+        return pendingEventTypes;
+    }
+
+    /**
+     * Marks events as processed. One statement is used per table.
+     *
+     * @param eventIds
+     */
+    public void markProcessed(List<Long> eventIds) {
+        Map<Integer, List<Long>> rowIds = new HashMap<>();
+
+        for (long eventId : eventIds) {
+            rowIds.computeIfAbsent(getPartition(eventId), partition -> new ArrayList<>()).add(getRowId(eventId));
+        }
+
+        for (Map.Entry<Integer, List<Long>> entry : rowIds.entrySet()) {
+            jdbcTemplate.update("update " + getTable(entry.getKey()) + " set processed = true where id in (:ids)",
+                    new MapSqlParameterSource("ids", entry.getValue()));
+        }
+    }
+
+    /**
+     * Truncates each table which is outside of the previous, current and next
+     * periods and has no unprocessed events, and refreshes the active tables.
+     */
+    private void purge() {
+        try {
+            int current = getCurrentPartition();
+
+            for (int partition = 0; partition < partitionCount; partition++) {
+                if (isInUse(partition, current)) {
+                    continue;
+                }
+
+                Integer unprocessed = jdbcTemplate.getJdbcTemplate()
+                        .queryForObject("select count(*) from " + getTable(partition) + " where processed = false", Integer.class);
+
+                if (unprocessed != null && unprocessed > 0) {
+                    activePartitions.add(partition);
+                    continue;
+                }
+
+                activePartitions.remove(partition);
+                jdbcTemplate.getJdbcTemplate().execute("truncate table " + getTable(partition));
+            }
+        } catch (Exception e) {
+            LOGGER.error("Outbox partition purge failed", e);
+        }
+    }
+
+    /**
+     * The tables to read from in oldest first order.
+     *
+     * @return
+     */
+    private List<Integer> getActivePartitions() {
+        int current = getCurrentPartition();
+
+        Set<Integer> partitions = new HashSet<>(activePartitions);
+        partitions.add(current);
+        partitions.add(Math.floorMod(current - 1, partitionCount));
+
+        List<Integer> oldestFirst = new ArrayList<>(partitions);
+        oldestFirst.sort(Comparator.comparingInt((Integer partition) -> getAge(partition, current)).reversed());
+
+        return oldestFirst;
+    }
+
+    private boolean isInUse(int partition, int current) {
+        int age = getAge(partition, current);
+
+        return age <= 1 || age == partitionCount - 1;
+    }
+
+    /**
+     * The number of periods since the table was current.
+     */
+    private int getAge(int partition, int current) {
+        return Math.floorMod(current - partition, partitionCount);
+    }
+
+    private int getCurrentPartition() {
+        return (int) Math.floorMod(System.currentTimeMillis() / partitionInterval, (long) partitionCount);
+    }
+
+    private long toEventId(int partition, long rowId) {
+        return rowId * partitionCount + partition;
+    }
+
+    private int getPartition(long eventId) {
+        return (int) (eventId % partitionCount);
+    }
+
+    private long getRowId(long eventId) {
+        return eventId / partitionCount;
+    }
+
+    private String getTable(int partition) {
+        return TABLE_PREFIX + partition;
+    }
+}
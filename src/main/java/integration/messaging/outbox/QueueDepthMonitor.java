@@ -0,0 +1,268 @@
+package integration.messaging.outbox;
+
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.stereotype.Component;
+
+import jakarta.jms.ConnectionFactory;
+import jakarta.jms.MapMessage;
+import jakarta.jms.Message;
+
+/**
+ * Watches the depth of the JMS queues the outbox dispatch writes to so the
+ * dispatch can apply backpressure. When a queue reaches its high water mark
+ * the dispatch is paused and messages stay in the database outbox rather than
+ * building up in broker memory. The dispatch resumes once the queue has
+ * drained to its low water mark.
+ *
+ * The depth is read from the broker statistics plugin, which replies to a
+ * message sent to ActiveMQ.Statistics.Destination.&lt;queue&gt; with the queue
+ * size including messages delivered to a consumer but not yet acknowledged.
+ * If the broker does not reply, eg. because the plugin is not enabled, the
+ * depth is found by browsing the queue instead and the statistics are tried
+ * again after the retry interval. A browse does not see unacknowledged messages
+ * and the broker limits how many messages it returns, so the browse stops at
+ * the max browse depth, which should match the brokers browse page size. A
+ * browse which reaches the max browse depth is treated as being at least at the
+ * high water mark as the real depth is unknown.
+ *
+ * The depth is sampled at most once per sample interval per queue. The broker
+ * is asked for the depth outside of the queues lock so other dispatches carry
+ * on with the previous sample while a request is waiting for a reply. Messages
+ * dispatched in between samples are added to the sampled depth so the capacity
+ * is used up as batches are sent rather than only when the next sample is
+ * read. If no JMS connection factory is available backpressure is not applied.
+ *
+ * @author Brendan Douglas
+ */
+@Component
+public class QueueDepthMonitor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueueDepthMonitor.class);
+
+    private static final String STATISTICS_DESTINATION_PREFIX = "ActiveMQ.Statistics.Destination.";
+
+    private final JmsTemplate jmsTemplate;
+
+    private final long sampleInterval;
+
+    private final int maxBrowseDepth;
+
+    private final boolean statistics;
+
+    private final long statisticsRetryInterval;
+
+    private final Map<String, QueueState> queues = new ConcurrentHashMap<>();
+
+    public QueueDepthMonitor(ObjectProvider<ConnectionFactory> connectionFactory,
+            @Value("${integration.messaging.outbox.queueDepthSampleInterval:1000}") long sampleInterval,
+            @Value("${integration.messaging.outbox.queueDepthStatistics:true}") boolean statistics,
+            @Value("${integration.messaging.outbox.queueDepthStatisticsTimeout:1000}") long statisticsTimeout,
+            @Value("${integration.messaging.outbox.queueDepthStatisticsRetryInterval:60000}") long statisticsRetryInterval,
+            @Value("${integration.messaging.outbox.maxBrowseDepth:400}") int maxBrowseDepth) {
+        ConnectionFactory factory = connectionFactory.getIfAvailable();
+
+        this.jmsTemplate = factory != null ? new JmsTemplate(factory) : null;
+        this.sampleInterval = sampleInterval;
+        this.statistics = statistics;
+        this.statisticsRetryInterval = statisticsRetryInterval;
+        this.maxBrowseDepth = maxBrowseDepth;
+
+        if (jmsTemplate != null) {
+            jmsTemplate.setReceiveTimeout(statisticsTimeout);
+        }
+    }
+
+    /**
+     * Returns the number of messages which can be added to a queue before it
+     * reaches the high water mark. Returns 0 while the queue is paused, which is
+     * from when the high water mark is reached until the queue has drained to the
+     * low water mark.
+     *
+     * @param queueName
+     * @param highWaterMark
+     * @param lowWaterMark
+     * @return
+     */
+    public int getAvailableCapacity(String queueName, int highWaterMark, int lowWaterMark) {
+        if (jmsTemplate == null) {
+            return highWaterMark;
+        }
+
+        QueueState state = sample(queueName);
+
+        synchronized (state) {
+            int depth = state.browseCapped ? Math.max(state.depth, highWaterMark) : state.depth;
+
+            if (depth >= highWaterMark) {
+                state.paused = true;
+            } else if (depth <= lowWaterMark) {
+                state.paused = false;
+            }
+
+            return state.paused ? 0 : highWaterMark - depth;
+        }
+    }
+
+    /**
+     * Adds messages which have just been sent to a queue to its sampled depth.
+     * The next sample replaces the estimate with the depth read from the broker.
+     *
+     * @param queueName
+     * @param numberDispatched
+     */
+    public void recordDispatched(String queueName, int numberDispatched) {
+        QueueState state = queues.get(queueName);
+
+        if (state == null || numberDispatched <= 0) {
+            return;
+        }
+
+        synchronized (state) {
+            state.depth += numberDispatched;
+        }
+    }
+
+    /**
+     * Returns the number of messages on a queue. Returns 0 if no JMS connection
+     * factory is available.
+     *
+     * @param queueName
+     * @return
+     */
+    public int getDepth(String queueName) {
+        if (jmsTemplate == null) {
+            return 0;
+        }
+
+        QueueState state = sample(queueName);
+
+        synchronized (state) {
+            return state.depth;
+        }
+    }
+
+    /**
+     * Returns the state of a queue, reading the depth again if the last sample is
+     * older than the sample interval. Only one caller reads the depth at a time and
+     * the broker is not asked while the state is locked.
+     */
+    private QueueState sample(String queueName) {
+        QueueState state = queues.computeIfAbsent(queueName, name -> new QueueState());
+
+        long now = System.currentTimeMillis();
+        boolean useStatistics = false;
+
+        synchronized (state) {
+            if (state.sampling || now - state.sampledAt < sampleInterval) {
+                return state;
+            }
+
+            state.sampling = true;
+            useStatistics = statistics && now >= state.statisticsRetryAt;
+        }
+
+        Integer statisticsDepth = null;
+        int browseDepth = 0;
+
+        try {
+            if (useStatistics) {
+                statisticsDepth = statisticsDepth(queueName);
+
+                if (statisticsDepth == null) {
+                    LOGGER.warn("No statistics reply for queue " + queueName + ". Is the broker statistics plugin enabled? The queue will be browsed instead");
+                }
+            }
+
+            if (statisticsDepth == null) {
+                browseDepth = browseDepth(queueName, maxBrowseDepth);
+            }
+        } finally {
+            synchronized (state) {
+                if (statisticsDepth != null) {
+                    state.depth = statisticsDepth;
+                    state.browseCapped = false;
+                } else {
+                    state.depth = browseDepth;
+                    state.browseCapped = browseDepth >= maxBrowseDepth;
+                }
+
+                if (useStatistics && statisticsDepth == null) {
+                    state.statisticsRetryAt = now + statisticsRetryInterval;
+                }
+
+                state.sampledAt = now;
+                state.sampling = false;
+            }
+        }
+
+        return state;
+    }
+
+    /**
+     * Asks the broker statistics plugin for the size of a queue. Returns null if
+     * there is no reply within the timeout.
+     *
+     * @param queueName
+     * @return
+     */
+    private Integer statisticsDepth(String queueName) {
+        try {
+            Message reply = jmsTemplate.sendAndReceive(STATISTICS_DESTINATION_PREFIX + queueName, session -> session.createMessage());
+
+            if (reply instanceof MapMessage queueStatistics && queueStatistics.itemExists("size")) {
+                return (int) Math.min(Integer.MAX_VALUE, queueStatistics.getLong("size"));
+            }
+
+            return null;
+        } catch (Exception e) {
+            LOGGER.warn("Unable to read the statistics of queue " + queueName, e);
+            return null;
+        }
+    }
+
+    /**
+     * Counts the messages on a queue up to the supplied limit.
+     *
+     * @param queueName
+     * @param limit
+     * @return
+     */
+    private int browseDepth(String queueName, int limit) {
+        try {
+            Integer depth = jmsTemplate.browse(queueName, (session, browser) -> {
+                Enumeration<?> messages = browser.getEnumeration();
+
+                int count = 0;
+
+                while (count < limit && messages.hasMoreElements()) {
+                    messages.nextElement();
+                    count++;
+                }
+
+                return count;
+            });
+
+            return depth != null ? depth : 0;
+        } catch (Exception e) {
+            // Do not stop the message flow because the depth could not be read.
+            LOGGER.warn("Unable to read the depth of queue " + queueName, e);
+            return 0;
+        }
+    }
+
+    private static class QueueState {
+        private int depth;
+        private long sampledAt = Long.MIN_VALUE / 2;
+        private boolean paused;
+        private boolean sampling;
+        private boolean browseCapped;
+        private long statisticsRetryAt;
+    }
+}
@@ -0,0 +1,61 @@
+package integration.messaging.service;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import integration.core.domain.configuration.ComponentRoute;
+import integration.core.exception.ConfigurationException;
+import integration.core.repository.ComponentRouteRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Provides component route references for the message flow persistence.
+ * 
+ * A component route is only read from the database the first time its id is
+ * used, to check it exists. After that a reference is returned which does not
+ * query the database, as a stored message flow step only needs the id of its
+ * component route. An id is read again after a ComponentRouteChanged event for
+ * it.
+ * 
+ * @author Brendan Douglas
+ */
+@Component
+public class ComponentRouteCache {
+
+    @Autowired
+    private ComponentRouteRepository componentRouteRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final Set<Long> knownComponentRouteIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Returns a reference to a component route. Must be called within a
+     * transaction.
+     * 
+     * @param componentRouteId
+     * @return
+     */
+    public ComponentRoute getReference(long componentRouteId) {
+        if (!knownComponentRouteIds.contains(componentRouteId)) {
+            if (componentRouteRepository.findById(componentRouteId).isEmpty()) {
+                throw new ConfigurationException("Component route not found. Id: " + componentRouteId);
+            }
+
+            knownComponentRouteIds.add(componentRouteId);
+        }
+
+        return entityManager.getReference(ComponentRoute.class, componentRouteId);
+    }
+
+    @EventListener
+    public void onComponentRouteChanged(ComponentRouteChanged event) {
+        knownComponentRouteIds.remove(event.getComponentRouteId());
+    }
+}
@@ -0,0 +1,19 @@
+package integration.messaging.service;
+
+/**
+ * Application event published when the configuration of a component route has
+ * changed. Anything caching component route data for the id must discard it.
+ * 
+ * @author Brendan Douglas
+ */
+public class ComponentRouteChanged {
+    private final long componentRouteId;
+
+    public ComponentRouteChanged(long componentRouteId) {
+        this.componentRouteId = componentRouteId;
+    }
+
+    public long getComponentRouteId() {
+        return componentRouteId;
+    }
+}
@@ -2,11 +2,13 @@ package integration.messaging.service;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import integration.core.domain.configuration.DirectionEnum;
 import integration.core.domain.messaging.MessageFlowTypeEvent;
 import integration.core.dto.MessageFlowEventDto;
 import integration.core.dto.MessageFlowStepDto;
+import integration.messaging.content.MessageContent;
 
 /**
  * Service to store messages/message flows.
@@ -27,6 +29,54 @@ public interface MessagingFlowService {
     MessageFlowStepDto recordMessageFlow(long componentRouteId, String messageContent, Map<String, Object> headers,
             Long fromMessageFlowStepId, String contentType, DirectionEnum direction);
 
+    /**
+     * Stores a new message flow step whose content is already in the blob store.
+     * The content is referenced rather than read and written again, and the
+     * returned message flow step has no content.
+     * 
+     * @param componentRouteId
+     * @param blobAddress
+     * @param headers
+     * @param fromMessageFlowStepId
+     * @param contentType
+     * @param direction
+     * @return
+     */
+    MessageFlowStepDto recordBlobMessageFlow(long componentRouteId, String blobAddress, Map<String, Object> headers, Long fromMessageFlowStepId,
+            String contentType, DirectionEnum direction);
+
+    /**
+     * Adds the number of parts a message was split into to the stored headers of
+     * the message flow step which was split, as the splitCount header.
+     * 
+     * @param messageFlowStepId
+     * @param splitCount
+     */
+    void recordSplitCount(long messageFlowStepId, int splitCount);
+
+    /**
+     * Records a number of sibling messages/message flows which share the same
+     * headers and from message flow step, eg. the parts of a split message. The
+     * from message flow step is read once and any from headers are merged into the
+     * supplied headers once. A message with the same content as the from message
+     * reuses the from message as it does when recorded on its own.
+     * 
+     * The messages and message flow steps are each saved with a single saveAll
+     * call. The integration-core entities use IDENTITY ids so Hibernate still
+     * inserts them one statement at a time. The saving is in fewer calls, not fewer
+     * round trips.
+     * 
+     * @param componentRouteId
+     * @param messageContents
+     * @param headers
+     * @param fromMessageFlowStepId
+     * @param contentType
+     * @param direction
+     * @return the message flow steps in the same order as the content.
+     */
+    List<MessageFlowStepDto> recordMessageFlows(long componentRouteId, List<String> messageContents, Map<String, Object> headers,
+            Long fromMessageFlowStepId, String contentType, DirectionEnum direction);
+
     /**
      * Filters a message.
      * 
@@ -46,6 +96,17 @@ public interface MessagingFlowService {
      */
     void recordMessageFlowEvent(long messageFlowId, MessageFlowTypeEvent eventType);
 
+    /**
+     * Records an event for each of a number of message flow steps of the same
+     * component. When the partitioned event store is enabled the events are
+     * written as a JDBC batch, otherwise they are saved with a single saveAll call
+     * which Hibernate inserts one statement at a time because of the IDENTITY ids.
+     * 
+     * @param messageFlowIds
+     * @param eventType
+     */
+    void recordMessageFlowEvents(List<Long> messageFlowIds, MessageFlowTypeEvent eventType);
+
     /**
      * Records an ACK.
      * 
@@ -56,14 +117,75 @@ public interface MessagingFlowService {
     MessageFlowStepDto recordAck(long componentRouteId, Map<String, Object> headers, String content, Long fromMessageFlowStepId);
 
     /**
-     * Retrieves a message flow.
+     * Retrieves a message flow. The step is returned with its full headers, which
+     * are rebuilt from the from message flow steps when stored as a delta.
      * 
      * @param messageFlowId
      * @return
      */
     MessageFlowStepDto retrieveMessageFlow(long messageFlowId);
 
+    /**
+     * Retrieves only the message content of a message flow step. A projection
+     * query is used so no entities are loaded.
+     * 
+     * @param messageFlowId
+     * @return
+     */
+    String retrieveMessageContent(long messageFlowId);
+
+    /**
+     * Retrieves the message content of a message flow step. Content held in the
+     * blob store is not read. It is streamed from the blob store when it is used.
+     * 
+     * @param messageFlowId
+     * @return
+     */
+    MessageContent openMessageContent(long messageFlowId);
+
     List<MessageFlowEventDto> getEvents(long componentRouteId, int numberToRead, MessageFlowTypeEvent type);
 
+    /**
+     * Claims events for dispatch using SELECT ... FOR UPDATE SKIP LOCKED. The
+     * claimed rows stay locked until the calling transaction completes and events
+     * locked by other transactions are skipped, so concurrent callers always claim
+     * different events. Must be called within the dispatch transaction.
+     * 
+     * @param componentRouteId
+     * @param numberToRead
+     * @param type
+     * @return
+     */
+    List<MessageFlowEventDto> claimEvents(long componentRouteId, int numberToRead, MessageFlowTypeEvent type);
+
+    /**
+     * Returns the number of events of the supplied type waiting to be processed
+     * for a component.
+     * 
+     * @param componentRouteId
+     * @param type
+     * @return
+     */
+    long getEventCount(long componentRouteId, MessageFlowTypeEvent type);
+
+    /**
+     * Returns which of the supplied event types of each component have events
+     * waiting to be processed. Each component and type is checked on its own, for
+     * whether at least one event exists, so a large backlog for one component
+     * neither slows the check down nor hides the events of other components.
+     * 
+     * @param eventTypes the event types to check for each component.
+     * @return
+     */
+    Map<Long, Set<MessageFlowTypeEvent>> getPendingEventTypes(Map<Long, Set<MessageFlowTypeEvent>> eventTypes);
+
     void deleteEvent(long eventId);
+
+    /**
+     * Deletes a batch of events in a single statement. With partitioned outbox
+     * storage the events are marked as processed instead.
+     * 
+     * @param eventIds
+     */
+    void deleteEvents(List<Long> eventIds);
 }
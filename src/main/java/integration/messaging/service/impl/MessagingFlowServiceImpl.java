@@ -1,16 +1,20 @@
 package integration.messaging.service.impl;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
+import org.hibernate.cfg.AvailableSettings;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
-import integration.core.domain.configuration.ComponentRoute;
 import integration.core.domain.configuration.DirectionEnum;
 import integration.core.domain.messaging.Message;
 import integration.core.domain.messaging.MessageFlowEvent;
@@ -22,13 +26,23 @@ import integration.core.dto.MessageFlowStepDto;
 import integration.core.dto.mapper.MessageFlowEventMapper;
 import integration.core.dto.mapper.MessageFlowStepMapper;
 import integration.core.exception.ConfigurationException;
-import integration.core.repository.ComponentRouteRepository;
 import integration.core.repository.MessageFlowEventRepository;
 import integration.core.repository.MessageFlowRepository;
 import integration.core.repository.MessageFlowStepRepository;
 import integration.core.repository.MessageRepository;
-import integration.core.util.Utils;
+import integration.messaging.content.MessageContent;
+import integration.messaging.content.MessageContentCache;
+import integration.messaging.content.MessageContentCodec;
+import integration.messaging.content.MessageDeduplicationIndex;
+import integration.messaging.content.MessageFlowStepHeaderStore;
+import integration.messaging.content.MessageHeaderStorage;
+import integration.messaging.outbox.MessageFlowEventRecorded;
+import integration.messaging.outbox.PartitionedOutboxEventStore;
+import integration.messaging.service.ComponentRouteCache;
 import integration.messaging.service.MessagingFlowService;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.PersistenceContext;
 
 @Service
 @Transactional(propagation = Propagation.REQUIRED)
@@ -44,11 +58,37 @@ public class MessagingFlowServiceImpl implements MessagingFlowService {
     private MessageRepository messageRepository;
 
     @Autowired
-    private ComponentRouteRepository componentRouteRepository;
+    private ComponentRouteCache componentRouteCache;
 
     @Autowired
     private MessageFlowEventRepository eventRepository;
 
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Autowired
+    private PartitionedOutboxEventStore partitionedEventStore;
+
+    @Autowired
+    private MessageContentCache contentCache;
+
+    @Autowired
+    private MessageDeduplicationIndex deduplicationIndex;
+
+    @Autowired
+    private MessageContentCodec contentCodec;
+
+    @Autowired
+    private MessageHeaderStorage headerStorage;
+
+    @Autowired
+    private MessageFlowStepHeaderStore stepHeaderStore;
+
+    // The number of pending events read by each outbox sweep.
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
     /**
      * Records the ACK.
      */
@@ -61,14 +101,17 @@ public class MessagingFlowServiceImpl implements MessagingFlowService {
             fromMessageFlow = messageFlowStepRepository.findById(fromMessageFlowStepId);
         }
 
+        String storedHeaders = headerStorage.toStored(headers);
+
         // Create the message and associated message flow.
-        Message message = createMessage(messageContent, headers, "HL7 ACK");
+        Message message = createMessage(messageContent, storedHeaders, "HL7 ACK");
 
         MessageFlowStep messageFlow = createMessageFlowStep(componentRouteId, message, fromMessageFlow, DirectionEnum.OUTBOUND,
                 fromMessageFlow.get().getMessageFlowGroup());
 
-        MessageFlowStepMapper mapper = new MessageFlowStepMapper();
-        return mapper.doMapping(messageFlow);
+        storeStepHeaders(messageFlow.getId(), storedHeaders);
+
+        return toDto(messageFlow);
     }
 
     /**
@@ -77,49 +120,293 @@ public class MessagingFlowServiceImpl implements MessagingFlowService {
     @Override
     public MessageFlowStepDto recordMessageFlow(long componentRouteId, String messageContent, Map<String, Object> headers,
             Long fromMessageFlowStepId, String contentType, DirectionEnum direction) {
+        return recordMessageFlow(componentRouteId, messageContent, null, headers, fromMessageFlowStepId, contentType, direction);
+    }
+
+    @Override
+    public MessageFlowStepDto recordBlobMessageFlow(long componentRouteId, String blobAddress, Map<String, Object> headers, Long fromMessageFlowStepId,
+            String contentType, DirectionEnum direction) {
+        return recordMessageFlow(componentRouteId, null, blobAddress, headers, fromMessageFlowStepId, contentType, direction);
+    }
+
+    /**
+     * Stores a new message/message flow with either the content or the blob store
+     * address of the content.
+     */
+    private MessageFlowStepDto recordMessageFlow(long componentRouteId, String messageContent, String blobAddress, Map<String, Object> headers,
+            Long fromMessageFlowStepId, String contentType, DirectionEnum direction) {
+        FromMessageFlowStep from = null;
         Optional<MessageFlowStep> fromMessageFlow = null;
-        String fromMessageContent = null;
 
         MessageFlowGroup messageFlow = null;
 
         if (fromMessageFlowStepId != null) {
             // Not the original incoming message if there is a from message flow id.
-            fromMessageFlow = messageFlowStepRepository.findById(fromMessageFlowStepId);
+            from = findFromMessageFlowStep(fromMessageFlowStepId);
+            fromMessageFlow = Optional.of(from.step);
 
-            // If a from message flow id is provided it must exist.
-            if (fromMessageFlow.isEmpty()) {
-                throw new ConfigurationException("from message flow not found. Id: " + fromMessageFlowStepId);
-            }
-
-            if (headers != null) {
-                Map<String, Object> fromMessageHeaders = Utils.convertFromJSON(fromMessageFlow.get().getMessage().getHeaders());
+            // With delta header storage the from headers are not read here.
+            if (headers != null && from.storedHeaders != null && headerStorage.isMergedOnWrite()) {
+                Map<String, Object> fromMessageHeaders = headerStorage.fromStored(from.storedHeaders);
                 headers.putAll(fromMessageHeaders);
             }
 
-            fromMessageContent = fromMessageFlow.get().getMessage().getContent();
-            messageFlow = fromMessageFlow.get().getMessageFlowGroup();
+            messageFlow = from.group;
         } else {
+            // Only a new group needs to be saved.  An existing group is already managed.
             messageFlow = new MessageFlowGroup();
+            messageFlowRepository.save(messageFlow);
         }
 
+        String storedHeaders = headerStorage.toStored(headers);
+
         // Create the message and associated message flow.
         Message message = null;
 
-        if (fromMessageContent != null && fromMessageContent.equals(messageContent)) {
-            message = fromMessageFlow.get().getMessage();
+        if (blobAddress != null) {
+            // Blob store content is only referenced so it is never read to compare or deduplicate it.
+            String storedContent = contentCodec.encodeBlobReference(blobAddress);
+
+            if (from != null && storedContent.equals(from.message.getContent())) {
+                message = from.message;
+            } else {
+                message = messageRepository.save(newStoredMessage(storedContent, storedHeaders, contentType));
+            }
+        } else if (from != null && isFromMessageContent(fromMessageFlowStepId, messageContent)) {
+            message = from.message;
         } else {
-            message = createMessage(messageContent, headers, contentType);
+            message = createMessage(messageContent, storedHeaders, contentType);
         }
 
-        messageFlowRepository.save(messageFlow);
-
+        // The step is saved when it is created.
         MessageFlowStep messageFlowStep = createMessageFlowStep(componentRouteId, message, fromMessageFlow, direction,
                 messageFlow);
 
-        messageFlowStep = messageFlowStepRepository.save(messageFlowStep);
+        storeStepHeaders(messageFlowStep.getId(), storedHeaders);
 
-        MessageFlowStepMapper mapper = new MessageFlowStepMapper();
-        return mapper.doMapping(messageFlowStep);
+        // The next component will usually need this content so cache it to avoid a database read.
+        if (messageContent != null) {
+            contentCache.put(messageFlowStep.getId(), messageContent);
+        }
+
+        return toDto(messageFlowStep, messageContent);
+    }
+
+    @Override
+    public void recordSplitCount(long messageFlowStepId, int splitCount) {
+        String storedHeaders = stepHeaderStore.isEnabled() ? stepHeaderStore.find(messageFlowStepId) : null;
+
+        MessageFlowStep messageFlowStep = null;
+
+        if (storedHeaders == null) {
+            messageFlowStep = findMessageFlowById(messageFlowStepId);
+            storedHeaders = messageFlowStep.getMessage().getHeaders();
+        }
+
+        Map<String, Object> headers = new HashMap<>();
+
+        if (storedHeaders != null) {
+            headers.putAll(headerStorage.fromStored(storedHeaders));
+        }
+
+        headers.put("splitCount", splitCount);
+
+        // A message can be shared when headers are stored for each step so it is never updated.
+        if (stepHeaderStore.isEnabled()) {
+            stepHeaderStore.put(messageFlowStepId, headerStorage.toStored(headers));
+            return;
+        }
+
+        Message message = messageFlowStep.getMessage();
+
+        // A step stores the message of the step it was created from when the content is unchanged. The headers of that step must not change.
+        if (isSharedMessage(message.getId())) {
+            message = messageRepository.save(newStoredMessage(message.getContent(), null, message.getContentType()));
+            messageFlowStep.setMessage(message);
+        }
+
+        message.setHeaders(headerStorage.toStored(headers));
+    }
+
+    /**
+     * Returns true if more than one message flow step stores the message.
+     * 
+     * @param messageId
+     * @return
+     */
+    private boolean isSharedMessage(long messageId) {
+        return entityManager.createQuery("select s.id from MessageFlowStep s where s.message.id = :messageId", Long.class)
+                .setParameter("messageId", messageId)
+                .setMaxResults(2)
+                .getResultList()
+                .size() > 1;
+    }
+
+    /**
+     * Reads the parts of a from message flow step needed to store the step after
+     * it. A projection query is used so neither the step nor its message content
+     * is loaded. References are returned for the entities.
+     * 
+     * @param fromMessageFlowStepId
+     * @return
+     */
+    private FromMessageFlowStep findFromMessageFlowStep(long fromMessageFlowStepId) {
+        List<Object[]> rows = entityManager
+                .createQuery("select s.messageFlowGroup.id, s.message.id, s.message.headers from MessageFlowStep s where s.id = :messageFlowId",
+                        Object[].class)
+                .setParameter("messageFlowId", fromMessageFlowStepId)
+                .getResultList();
+
+        // If a from message flow id is provided it must exist.
+        if (rows.isEmpty()) {
+            throw new ConfigurationException("from message flow not found. Id: " + fromMessageFlowStepId);
+        }
+
+        FromMessageFlowStep from = new FromMessageFlowStep();
+        from.step = entityManager.getReference(MessageFlowStep.class, fromMessageFlowStepId);
+        from.group = entityManager.getReference(MessageFlowGroup.class, rows.get(0)[0]);
+        from.message = entityManager.getReference(Message.class, rows.get(0)[1]);
+        from.storedHeaders = (String) rows.get(0)[2];
+
+        // Steps stored before deduplication was enabled have their headers on the message.
+        if (stepHeaderStore.isEnabled()) {
+            String stepHeaders = stepHeaderStore.find(fromMessageFlowStepId);
+
+            if (stepHeaders != null) {
+                from.storedHeaders = stepHeaders;
+            }
+        }
+
+        return from;
+    }
+
+    /**
+     * Returns true if the content is the same as the content of the from message
+     * flow step. The cached content is compared if there is some, otherwise the
+     * stored content is read.
+     * 
+     * @param fromMessageFlowStepId
+     * @param messageContent
+     * @return
+     */
+    private boolean isFromMessageContent(long fromMessageFlowStepId, String messageContent) {
+        return getFromMessageContent(fromMessageFlowStepId).equals(messageContent);
+    }
+
+    /**
+     * Returns the content of the from message flow step, from the content cache if
+     * it is there.
+     * 
+     * @param fromMessageFlowStepId
+     * @return
+     */
+    private String getFromMessageContent(long fromMessageFlowStepId) {
+        String fromMessageContent = contentCache.get(fromMessageFlowStepId);
+
+        if (fromMessageContent == null) {
+            fromMessageContent = retrieveMessageContent(fromMessageFlowStepId);
+        }
+
+        return fromMessageContent;
+    }
+
+    /**
+     * Stores a number of sibling messages/message flows.
+     */
+    @Override
+    public List<MessageFlowStepDto> recordMessageFlows(long componentRouteId, List<String> messageContents, Map<String, Object> headers,
+            Long fromMessageFlowStepId, String contentType, DirectionEnum direction) {
+        FromMessageFlowStep from = null;
+        Optional<MessageFlowStep> fromMessageFlow = null;
+        MessageFlowGroup messageFlow = null;
+
+        // The headers are shared by all the messages so any merging is done once.
+        if (fromMessageFlowStepId != null) {
+            from = findFromMessageFlowStep(fromMessageFlowStepId);
+            fromMessageFlow = Optional.of(from.step);
+
+            if (headers != null && from.storedHeaders != null && headerStorage.isMergedOnWrite()) {
+                headers.putAll(headerStorage.fromStored(from.storedHeaders));
+            }
+
+            messageFlow = from.group;
+        } else {
+            messageFlow = new MessageFlowGroup();
+            messageFlowRepository.save(messageFlow);
+        }
+
+        String storedHeaders = headerStorage.toStored(headers);
+
+        // The from content is only read once, and only if there is a from message flow step.
+        String fromMessageContent = from != null ? getFromMessageContent(fromMessageFlowStepId) : null;
+
+        List<Message> messages = new ArrayList<>(messageContents.size());
+        List<Message> newMessages = new ArrayList<>(messageContents.size());
+
+        // New messages by content address so identical parts within the batch are also only stored once.
+        Map<String, Message> newMessageAddresses = new HashMap<>();
+
+        for (String messageContent : messageContents) {
+            Message message = null;
+
+            if (fromMessageContent != null && fromMessageContent.equals(messageContent)) {
+                message = from.message;
+            } else if (deduplicationIndex.isEnabled()) {
+                String contentAddress = deduplicationIndex.getContentAddress(messageContent, contentType);
+
+                message = newMessageAddresses.get(contentAddress);
+
+                if (message == null) {
+                    message = findDuplicateMessage(contentAddress);
+                }
+
+                if (message == null) {
+                    message = newMessage(messageContent, storedHeaders, contentType);
+                    newMessages.add(message);
+                    newMessageAddresses.put(contentAddress, message);
+                }
+            } else {
+                message = newMessage(messageContent, storedHeaders, contentType);
+                newMessages.add(message);
+            }
+
+            messages.add(message);
+        }
+
+        messageRepository.saveAll(newMessages);
+
+        for (Map.Entry<String, Message> entry : newMessageAddresses.entrySet()) {
+            deduplicationIndex.add(entry.getKey(), entry.getValue().getId());
+        }
+
+        List<MessageFlowStep> messageFlowSteps = new ArrayList<>(messages.size());
+
+        for (Message message : messages) {
+            messageFlowSteps.add(newMessageFlowStep(componentRouteId, message, fromMessageFlow, direction, messageFlow));
+        }
+
+        messageFlowStepRepository.saveAll(messageFlowSteps);
+
+        if (stepHeaderStore.isEnabled()) {
+            List<Long> messageFlowStepIds = new ArrayList<>(messageFlowSteps.size());
+
+            for (MessageFlowStep messageFlowStep : messageFlowSteps) {
+                messageFlowStepIds.add(messageFlowStep.getId());
+            }
+
+            stepHeaderStore.addAll(messageFlowStepIds, storedHeaders);
+        }
+
+        List<MessageFlowStepDto> messageFlowStepDtos = new ArrayList<>(messageFlowSteps.size());
+
+        for (int i = 0; i < messageFlowSteps.size(); i++) {
+            MessageFlowStep messageFlowStep = messageFlowSteps.get(i);
+
+            contentCache.put(messageFlowStep.getId(), messageContents.get(i));
+            messageFlowStepDtos.add(toDto(messageFlowStep, messageContents.get(i)));
+        }
+
+        return messageFlowStepDtos;
     }
 
     /**
@@ -129,25 +416,139 @@ public class MessagingFlowServiceImpl implements MessagingFlowService {
     public void recordMessageFlowEvent(long messageFlowId, MessageFlowTypeEvent eventType) {
         MessageFlowStep messageFlow = findMessageFlowById(messageFlowId);
 
-        MessageFlowEvent event = new MessageFlowEvent();
-        event.setMessageFlow(messageFlow);
-        event.setType(eventType);
-        eventRepository.save(event);
+        if (partitionedEventStore.isEnabled()) {
+            partitionedEventStore.recordEvent(messageFlowId, messageFlow.getComponentRoute().getId(), eventType);
+        } else {
+            MessageFlowEvent event = new MessageFlowEvent();
+            event.setMessageFlow(messageFlow);
+            event.setType(eventType);
+            eventRepository.save(event);
+        }
+
+        // Let the outbox dispatcher know there is an event waiting. This is only acted on once the transaction commits.
+        applicationEventPublisher.publishEvent(new MessageFlowEventRecorded(messageFlow.getComponentRoute().getId(), eventType));
+    }
+
+    /**
+     * Records an event for each message flow step. The component is read from the
+     * first step as all the steps belong to the same component.
+     */
+    @Override
+    public void recordMessageFlowEvents(List<Long> messageFlowIds, MessageFlowTypeEvent eventType) {
+        if (messageFlowIds.isEmpty()) {
+            return;
+        }
+
+        long componentRouteId = findMessageFlowById(messageFlowIds.get(0)).getComponentRoute().getId();
+
+        if (partitionedEventStore.isEnabled()) {
+            partitionedEventStore.recordEvents(messageFlowIds, componentRouteId, eventType);
+        } else {
+            List<MessageFlowEvent> events = new ArrayList<>(messageFlowIds.size());
+
+            for (long messageFlowId : messageFlowIds) {
+                MessageFlowEvent event = new MessageFlowEvent();
+                event.setMessageFlow(entityManager.getReference(MessageFlowStep.class, messageFlowId));
+                event.setType(eventType);
+                events.add(event);
+            }
+
+            eventRepository.saveAll(events);
+        }
+
+        // A single signal is enough for the whole batch.
+        applicationEventPublisher.publishEvent(new MessageFlowEventRecorded(componentRouteId, eventType));
+    }
+
+    /**
+     * Creates and returns a new message. When deduplication is enabled and an
+     * identical message has already been stored a reference to that message is
+     * returned instead.
+     * 
+     * @param content
+     * @param storedHeaders
+     * @return
+     */
+    private Message createMessage(String content, String storedHeaders, String contentType) {
+        String contentAddress = null;
+
+        if (deduplicationIndex.isEnabled()) {
+            contentAddress = deduplicationIndex.getContentAddress(content, contentType);
+
+            Message message = findDuplicateMessage(contentAddress);
+
+            if (message != null) {
+                return message;
+            }
+        }
+
+        Message message = newMessage(content, storedHeaders, contentType);
+        messageRepository.save(message);
+
+        if (contentAddress != null) {
+            deduplicationIndex.add(contentAddress, message.getId());
+        }
+
+        return message;
+    }
+
+    /**
+     * Stores the headers of a message flow step when headers are stored for each
+     * step rather than with the message.
+     * 
+     * @param messageFlowStepId
+     * @param storedHeaders
+     */
+    private void storeStepHeaders(long messageFlowStepId, String storedHeaders) {
+        if (stepHeaderStore.isEnabled()) {
+            stepHeaderStore.add(messageFlowStepId, storedHeaders);
+        }
     }
 
     /**
-     * Creates and returns a new message.
+     * Returns a reference to an identical message which has already been stored or
+     * null if there isn't one.
+     * 
+     * @param contentAddress
+     * @return
+     */
+    private Message findDuplicateMessage(String contentAddress) {
+        Long messageId = deduplicationIndex.findMessageId(contentAddress);
+
+        if (messageId == null) {
+            return null;
+        }
+
+        return entityManager.getReference(Message.class, messageId);
+    }
+
+    /**
+     * Returns a new unsaved message.
      * 
      * @param content
-     * @param headers
+     * @param storedHeaders
+     * @param contentType
+     * @return
+     */
+    private Message newMessage(String content, String storedHeaders, String contentType) {
+        return newStoredMessage(contentCodec.encode(content), storedHeaders, contentType);
+    }
+
+    /**
+     * Returns a new unsaved message with content which has already been encoded.
+     * 
+     * @param storedContent
+     * @param storedHeaders
+     * @param contentType
      * @return
      */
-    private Message createMessage(String content, Map<String, Object> headers, String contentType) {
+    private Message newStoredMessage(String storedContent, String storedHeaders, String contentType) {
         Message message = new Message();
-        message.setContent(content);
+        message.setContent(storedContent);
         message.setContentType(contentType);
-        message.setHeaders(Utils.convertToJSON(headers));
-        messageRepository.save(message);
+
+        // A message which can be shared is stored without headers.  The headers are stored for each step instead.
+        message.setHeaders(stepHeaderStore.isEnabled() ? null : storedHeaders);
 
         return message;
     }
@@ -163,10 +564,23 @@ public class MessagingFlowServiceImpl implements MessagingFlowService {
      */
     private MessageFlowStep createMessageFlowStep(long componentRouteId, Message message, Optional<MessageFlowStep> from,
             DirectionEnum direction, MessageFlowGroup messageFlow) {
-        Optional<ComponentRoute> componentRouteOptional = componentRouteRepository.findById(componentRouteId);
+        return messageFlowStepRepository.save(newMessageFlowStep(componentRouteId, message, from, direction, messageFlow));
+    }
 
+    /**
+     * Returns a new unsaved message flow step added to the message flow group.
+     * 
+     * @param componentRouteId
+     * @param message
+     * @param from
+     * @param direction
+     * @param messageFlow
+     * @return
+     */
+    private MessageFlowStep newMessageFlowStep(long componentRouteId, Message message, Optional<MessageFlowStep> from,
+            DirectionEnum direction, MessageFlowGroup messageFlow) {
         MessageFlowStep messageFlowStep = new MessageFlowStep();
-        messageFlowStep.setComponentRoute(componentRouteOptional.get());
+        messageFlowStep.setComponentRoute(componentRouteCache.getReference(componentRouteId));
         messageFlowStep.setMessage(message);
         messageFlowStep.setDirection(direction);
 
@@ -176,7 +590,7 @@ public class MessagingFlowServiceImpl implements MessagingFlowService {
 
         messageFlow.addMessageFlowStep(messageFlowStep);
 
-        return messageFlowStepRepository.save(messageFlowStep);
+        return messageFlowStep;
     }
 
     /**
@@ -191,9 +605,136 @@ public class MessagingFlowServiceImpl implements MessagingFlowService {
             throw new ConfigurationException("Message flow not found. Id: " + messageFlowId);
         }
 
+        MessageFlowStep messageFlowStep = messageFlow.get();
+
+        // The message is detached so the full headers it is mapped with are never written back.  It may be shared by other steps.
+        Message message = messageFlowStep.getMessage();
+        entityManager.detach(message);
+        message.setHeaders(headerStorage.toStoredFull(retrieveMessageHeaders(messageFlowId)));
+
+        return toDto(messageFlowStep);
+    }
+
+    /**
+     * Returns the full headers of a message flow step. Headers stored as a delta
+     * are combined with the headers of each from message flow step in turn, with
+     * the headers from earlier steps taking precedence as they do when merged on
+     * write, until headers which are not a delta are reached.
+     * 
+     * @param messageFlowStepId
+     * @return
+     */
+    private Map<String, Object> retrieveMessageHeaders(long messageFlowStepId) {
+        Map<String, Object> headers = new HashMap<>();
+
+        Long stepId = messageFlowStepId;
+
+        while (stepId != null) {
+            List<Object[]> rows = entityManager
+                    .createQuery("select f.id, s.message.headers from MessageFlowStep s left join s.fromMessageFlowStep f where s.id = :messageFlowId",
+                            Object[].class)
+                    .setParameter("messageFlowId", stepId)
+                    .getResultList();
+
+            if (rows.isEmpty()) {
+                throw new ConfigurationException("Message flow not found. Id: " + stepId);
+            }
+
+            String storedHeaders = (String) rows.get(0)[1];
+
+            // Steps stored before deduplication was enabled have their headers on the message.
+            if (stepHeaderStore.isEnabled()) {
+                String stepHeaders = stepHeaderStore.find(stepId);
+
+                if (stepHeaders != null) {
+                    storedHeaders = stepHeaders;
+                }
+            }
+
+            if (storedHeaders == null) {
+                break;
+            }
+
+            Map<String, Object> stepHeaders = headerStorage.fromStored(storedHeaders);
+
+            if (stepHeaders == null) {
+                break;
+            }
+
+            headers.putAll(stepHeaders);
+
+            if (!headerStorage.isDelta(stepHeaders)) {
+                break;
+            }
+
+            stepId = (Long) rows.get(0)[0];
+        }
+
+        headers.remove(MessageHeaderStorage.DELTA_MARKER);
+
+        return headers;
+    }
+
+    /**
+     * Maps a message flow step to a DTO with the stored content decoded.
+     * 
+     * @param messageFlowStep
+     * @return
+     */
+    private MessageFlowStepDto toDto(MessageFlowStep messageFlowStep) {
         MessageFlowStepMapper mapper = new MessageFlowStepMapper();
 
-        return mapper.doMapping(messageFlow.get());
+        MessageFlowStepDto messageFlowStepDto = mapper.doMapping(messageFlowStep);
+        messageFlowStepDto.setMessageContent(contentCodec.decode(messageFlowStepDto.getMessageContent()));
+
+        return messageFlowStepDto;
+    }
+
+    /**
+     * Maps a message flow step which has just been stored to a DTO. The content
+     * the step was stored with is used rather than decoding it again.
+     * 
+     * @param messageFlowStep
+     * @param messageContent
+     * @return
+     */
+    private MessageFlowStepDto toDto(MessageFlowStep messageFlowStep, String messageContent) {
+        MessageFlowStepMapper mapper = new MessageFlowStepMapper();
+
+        MessageFlowStepDto messageFlowStepDto = mapper.doMapping(messageFlowStep);
+        messageFlowStepDto.setMessageContent(messageContent);
+
+        return messageFlowStepDto;
+    }
+
+    @Override
+    public String retrieveMessageContent(long messageFlowId) {
+        List<String> content = entityManager
+                .createQuery("select s.message.content from MessageFlowStep s where s.id = :messageFlowId", String.class)
+                .setParameter("messageFlowId", messageFlowId)
+                .getResultList();
+
+        // The message flow must exist.
+        if (content.isEmpty()) {
+            throw new ConfigurationException("Message flow not found. Id: " + messageFlowId);
+        }
+
+        return contentCodec.decode(content.get(0));
+    }
+
+    @Override
+    public MessageContent openMessageContent(long messageFlowId) {
+        List<String> content = entityManager
+                .createQuery("select s.message.content from MessageFlowStep s where s.id = :messageFlowId", String.class)
+                .setParameter("messageFlowId", messageFlowId)
+                .getResultList();
+
+        // The message flow must exist.
+        if (content.isEmpty()) {
+            throw new ConfigurationException("Message flow not found. Id: " + messageFlowId);
+        }
+
+        return contentCodec.decodeContent(content.get(0));
     }
 
     @Override
@@ -230,6 +771,10 @@ public class MessagingFlowServiceImpl implements MessagingFlowService {
 
     @Override
     public List<MessageFlowEventDto> getEvents(long componentRouteId, int numberToRead, MessageFlowTypeEvent type) {
+        if (partitionedEventStore.isEnabled()) {
+            return partitionedEventStore.getEvents(componentRouteId, numberToRead, type, false);
+        }
+
         MessageFlowEventMapper mapper = new MessageFlowEventMapper();
 
         List<MessageFlowEventDto> eventDtos = new ArrayList<>();
@@ -243,9 +788,109 @@ public class MessagingFlowServiceImpl implements MessagingFlowService {
         return eventDtos;
     }
 
+    @Override
+    public List<MessageFlowEventDto> claimEvents(long componentRouteId, int numberToRead, MessageFlowTypeEvent type) {
+        if (partitionedEventStore.isEnabled()) {
+            return partitionedEventStore.getEvents(componentRouteId, numberToRead, type, true);
+        }
+
+        MessageFlowEventMapper mapper = new MessageFlowEventMapper();
+
+        List<MessageFlowEventDto> eventDtos = new ArrayList<>();
+
+        // The component is matched in a subquery rather than a join so only the event rows are locked.  A lock timeout of -2 is SKIP LOCKED.
+        List<MessageFlowEvent> events = entityManager
+                .createQuery("select e from MessageFlowEvent e where e.messageFlow.id in (select s.id from MessageFlowStep s where s.componentRoute.id = :componentRouteId) "
+                        + "and e.type = :type order by e.id", MessageFlowEvent.class)
+                .setParameter("componentRouteId", componentRouteId)
+                .setParameter("type", type)
+                .setMaxResults(numberToRead)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .setHint(AvailableSettings.JAKARTA_LOCK_TIMEOUT, -2)
+                .getResultList();
+
+        for (MessageFlowEvent event : events) {
+            eventDtos.add(mapper.doMapping(event));
+        }
+
+        return eventDtos;
+    }
+
+    @Override
+    public long getEventCount(long componentRouteId, MessageFlowTypeEvent type) {
+        if (partitionedEventStore.isEnabled()) {
+            return partitionedEventStore.getEventCount(componentRouteId, type);
+        }
+
+        return entityManager
+                .createQuery("select count(e) from MessageFlowEvent e where e.messageFlow.componentRoute.id = :componentRouteId and e.type = :type",
+                        Long.class)
+                .setParameter("componentRouteId", componentRouteId)
+                .setParameter("type", type)
+                .getSingleResult();
+    }
+
+    @Override
+    public Map<Long, Set<MessageFlowTypeEvent>> getPendingEventTypes(Map<Long, Set<MessageFlowTypeEvent>> eventTypes) {
+        if (partitionedEventStore.isEnabled()) {
+            return partitionedEventStore.getPendingEventTypes(eventTypes);
+        }
+
+        Map<Long, Set<MessageFlowTypeEvent>> pendingEventTypes = new HashMap<>();
+
+        for (Map.Entry<Long, Set<MessageFlowTypeEvent>> entry : eventTypes.entrySet()) {
+            for (MessageFlowTypeEvent type : entry.getValue()) {
+                // Only whether an event exists is needed so the query stops at the first one.
+                List<Long> eventIds = entityManager
+                        .createQuery("select e.id from MessageFlowEvent e where e.messageFlow.componentRoute.id = :componentRouteId and e.type = :type", Long.class)
+                        .setParameter("componentRouteId", entry.getKey())
+                        .setParameter("type", type)
+                        .setMaxResults(1)
+                        .getResultList();
+
+                if (!eventIds.isEmpty()) {
+                    pendingEventTypes.computeIfAbsent(entry.getKey(), id -> EnumSet.noneOf(MessageFlowTypeEvent.class)).add(type);
+                }
+            }
+        }
+
+        return pendingEventTypes;
+    }
+
     @Override
     public void deleteEvent(long eventId) {
+        if (partitionedEventStore.isEnabled()) {
+            partitionedEventStore.markProcessed(List.of(eventId));
+            return;
+        }
+
         eventRepository.deleteById(eventId);
     }
 
+    @Override
+    public void deleteEvents(List<Long> eventIds) {
+        if (eventIds.isEmpty()) {
+            return;
+        }
+
+        // Partitioned events are marked as processed and removed in bulk when their partition is truncated.
+        if (partitionedEventStore.isEnabled()) {
+            partitionedEventStore.markProcessed(eventIds);
+            return;
+        }
+
+        entityManager.createQuery("delete from MessageFlowEvent e where e.id in :eventIds")
+                .setParameter("eventIds", eventIds)
+                .executeUpdate();
+    }
+
+    /**
+     * The parts of a from message flow step needed to store the step after it.
+     */
+    private static class FromMessageFlowStep {
+        private MessageFlowStep step;
+        private MessageFlowGroup group;
+        private Message message;
+        private String storedHeaders;
+    }
 }
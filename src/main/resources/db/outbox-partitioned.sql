@@ -0,0 +1,29 @@
+-- Tables for the PARTITIONED outbox storage mode (integration.messaging.outbox.storageMode=PARTITIONED).
+--
+-- One table is needed for each partition, outbox_event_0 .. outbox_event_<partitionCount - 1>.  The default
+-- partition count is 4.  Add a table for each extra partition if integration.messaging.outbox.partitionCount is
+-- increased.
+--
+-- The processed flag is the first column of the pending index so queries for unprocessed events do not visit
+-- the rows already dispatched.
+
+create table if not exists outbox_event_0 (id bigint not null auto_increment primary key, message_flow_id bigint not null,
+    component_route_id bigint not null, type varchar(64) not null, processed boolean not null default false,
+    index outbox_event_0_pending (processed, component_route_id, type, id));
+
+create table if not exists outbox_event_1 (id bigint not null auto_increment primary key, message_flow_id bigint not null,
+    component_route_id bigint not null, type varchar(64) not null, processed boolean not null default false,
+    index outbox_event_1_pending (processed, component_route_id, type, id));
+
+create table if not exists outbox_event_2 (id bigint not null auto_increment primary key, message_flow_id bigint not null,
+    component_route_id bigint not null, type varchar(64) not null, processed boolean not null default false,
+    index outbox_event_2_pending (processed, component_route_id, type, id));
+
+create table if not exists outbox_event_3 (id bigint not null auto_increment primary key, message_flow_id bigint not null,
+    component_route_id bigint not null, type varchar(64) not null, processed boolean not null default false,
+    index outbox_event_3_pending (processed, component_route_id, type, id));
+
+-- Tables created by earlier versions have a pending index without the processed flag, or with it last.  Rebuild
+-- the index on each of them, eg.
+--
+-- alter table outbox_event_0 drop index outbox_event_0_pending, add index outbox_event_0_pending (processed, component_route_id, type, id);
@@ -0,0 +1,54 @@
+package integration.messaging;
+
+import java.util.function.Supplier;
+
+/**
+ * Times an operation for the main method benchmarks under src/test. Not a
+ * replacement for JMH, which is not available to the build, but enough to
+ * compare two ways of doing the same thing in the same JVM.
+ *
+ * @author Brendan Douglas
+ */
+public final class Microbenchmark {
+    private static final int ROUNDS = 5;
+
+    private Microbenchmark() {
+    }
+
+    /**
+     * Returns the average time of an operation in nanoseconds. The operation is
+     * run for the warm up iterations first, then the best of a number of rounds is
+     * used to reduce noise from GC and JIT.
+     *
+     * @param operation
+     * @param warmupIterations
+     * @param iterations
+     * @return
+     */
+    public static double measure(Supplier<?> operation, int warmupIterations, int iterations) {
+        Object sink = null;
+
+        for (int i = 0; i < warmupIterations; i++) {
+            sink = operation.get();
+        }
+
+        long elapsed = Long.MAX_VALUE;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+
+            for (int i = 0; i < iterations; i++) {
+                sink = operation.get();
+            }
+
+            elapsed = Math.min(elapsed, System.nanoTime() - start);
+        }
+
+        // Keeps the results reachable so the loop is not optimised away.
+        if (sink == null) {
+            throw new IllegalStateException("The operation returned null");
+        }
+
+        return (double) elapsed / iterations;
+    }
+}
@@ -0,0 +1,52 @@
+package integration.messaging.content;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import integration.messaging.Microbenchmark;
+
+/**
+ * Compares the JSON and binary header codecs on a typical set of stored
+ * headers. Prints the stored size and the time to encode and decode.
+ *
+ * Run the main method from the test classpath. It is not a unit test so it is
+ * not run by the build.
+ *
+ * @author Brendan Douglas
+ */
+public class HeaderCodecBenchmark {
+    private static final int WARMUP_ITERATIONS = 50_000;
+    private static final int ITERATIONS = 200_000;
+
+    public static void main(String[] args) {
+        Map<String, Object> headers = new LinkedHashMap<>();
+        headers.put("contentType", "HL7");
+        headers.put("messageFlowStepId", 123456789L);
+        headers.put("fromMessageFlowStepId", 123456788L);
+        headers.put("splitCount", 12);
+        headers.put("FORWARD_MESSAGE", true);
+        headers.put("CamelFileName", "ADT_A01_20240101120000_0001.hl7");
+        headers.put("sendingFacility", "HOSPITAL-A");
+        headers.put("receivingFacility", "LAB-SYSTEM");
+
+        run("JSON", new JsonHeaderCodec(), headers);
+        run("BINARY", new BinaryHeaderCodec(), headers);
+    }
+
+    private static void run(String name, MessageHeaderCodec codec, Map<String, Object> headers) {
+        String stored = codec.encode(headers);
+
+        Map<String, Object> decoded = codec.decode(stored);
+
+        for (Map.Entry<String, Object> header : headers.entrySet()) {
+            if (!String.valueOf(header.getValue()).equals(String.valueOf(decoded.get(header.getKey())))) {
+                throw new IllegalStateException(name + " headers do not round trip: " + decoded);
+            }
+        }
+
+        double encode = Microbenchmark.measure(() -> codec.encode(headers), WARMUP_ITERATIONS, ITERATIONS);
+        double decode = Microbenchmark.measure(() -> codec.decode(stored), WARMUP_ITERATIONS, ITERATIONS);
+
+        System.out.printf("%-7s stored %4d chars  encode %8.1f ns/op  decode %8.1f ns/op%n", name, stored.length(), encode, decode);
+    }
+}
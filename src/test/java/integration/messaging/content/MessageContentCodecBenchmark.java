@@ -0,0 +1,66 @@
+package integration.messaging.content;
+
+import integration.messaging.Microbenchmark;
+
+/**
+ * Compares storing message content raw with storing it deflated at the FAST and
+ * DENSE levels. Prints the stored size and the time to encode and decode for a
+ * small and a large HL7 style message.
+ *
+ * Run the main method from the test classpath. It is not a unit test so it is
+ * not run by the build.
+ *
+ * @author Brendan Douglas
+ */
+public class MessageContentCodecBenchmark {
+
+    public static void main(String[] args) {
+        // No blob store directory so content is never written to files.
+        FileBlobStore blobStore = new FileBlobStore("", Integer.MAX_VALUE, 0, 0);
+
+        for (int segments : new int[] { 20, 2000 }) {
+            String content = createMessage(segments);
+
+            // Fewer iterations for the large message so each run takes a similar time.
+            int iterations = Math.max(20, 200_000 / segments);
+
+            System.out.printf("Message of %d chars%n", content.length());
+
+            for (ContentCompression compression : ContentCompression.values()) {
+                run(compression, new MessageContentCodec(compression, 1024, blobStore), content, iterations);
+            }
+        }
+    }
+
+    private static void run(ContentCompression compression, MessageContentCodec codec, String content, int iterations) {
+        String stored = codec.encode(content);
+
+        if (!content.equals(codec.decode(stored))) {
+            throw new IllegalStateException(compression + " content does not round trip");
+        }
+
+        double encode = Microbenchmark.measure(() -> codec.encode(content), iterations / 4, iterations);
+        double decode = Microbenchmark.measure(() -> codec.decode(stored), iterations / 4, iterations);
+
+        System.out.printf("  %-5s stored %8d chars  encode %10.1f us/op  decode %10.1f us/op%n", compression, stored.length(), encode / 1000,
+                decode / 1000);
+    }
+
+    /**
+     * Creates an HL7 v2 style message with a header and the supplied number of
+     * observation segments.
+     */
+    private static String createMessage(int segments) {
+        StringBuilder message = new StringBuilder();
+        message.append("MSH|^~\\&|LAB|HOSPITAL-A|EHR|HOSPITAL-B|20240101120000||ORU^R01|MSG00001|P|2.5\r");
+        message.append("PID|1||123456^^^HOSPITAL-A^MR||SMITH^JOHN^A||19700101|M|||1 MAIN ST^^TOWN^ST^12345\r");
+        message.append("OBR|1|ORD001|FIL001|CBC^COMPLETE BLOOD COUNT|||20240101110000\r");
+
+        for (int i = 1; i <= segments; i++) {
+            message.append("OBX|").append(i).append("|NM|").append(1000 + i % 50).append("^TEST ").append(i % 50).append("||")
+                    .append(i * 7 % 200).append(".").append(i % 10).append("|mmol/L|3.5-5.0|N|||F|||20240101115500\r");
+        }
+
+        return message.toString();
+    }
+}